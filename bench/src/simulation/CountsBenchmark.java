@@ -0,0 +1,75 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time to add the result of one pair to the counts.
+ *
+ * @author croth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CountsBenchmark {
+
+    static final int N = 1024;
+
+    private int[] whichA;
+    private int[] whichB;
+    private int[] spinA;
+    private int[] spinB;
+    private Counts counts;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(1234);
+        whichA = new int[N];
+        whichB = new int[N];
+        spinA = new int[N];
+        spinB = new int[N];
+        for (int i = 0; i < N; i++) {
+            whichA[i] = r.nextInt(2);
+            whichB[i] = r.nextInt(2);
+            spinA[i] = r.nextInt(3) - 1;
+            spinB[i] = r.nextInt(3) - 1;
+        }
+        counts = new Counts();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public Counts addResultOfOnePair() {
+        for (int i = 0; i < N; i++) {
+            counts.addResultOfOnePair(whichA[i], whichB[i], spinA[i], spinB[i]);
+        }
+        return counts;
+    }
+}
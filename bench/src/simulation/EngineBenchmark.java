@@ -0,0 +1,68 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Time per trial of a whole run of the engine (Wang model, Guistina 2015),
+ * with and without the log file. With the log, log.bin is written into the
+ * working directory. The summary is not written, so only the log is timed.
+ *
+ * @author croth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    static final int TRIALS = 100000;
+
+    @Param({"false", "true"})
+    public boolean writeLog;
+
+    @Param({"true", "false"})
+    public boolean fair;
+
+    private Engine engine;
+
+    @Setup
+    public void setup() {
+        Settings settings = new Settings();
+        engine = new Engine(new WangLHVModel(settings), new Guistina2015(), fair);
+        engine.setWriteLog(writeLog);
+        engine.writeSummary = false;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TRIALS)
+    public double run() {
+        return engine.run(TRIALS, null, false);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time per measurement of the models (one detector, one hidden variable).
+ * TrivialModel.measure is private, so it is measured through computeSpinB.
+ *
+ * @author croth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ModelBenchmark {
+
+    static final int N = 1024;
+
+    private double[] lambdas;
+    private double[] angles;
+    private WangLHVModel wang;
+    private TrivialModel trivial;
+    private byte[] spins;
+
+    @Setup
+    public void setup() {
+        Settings settings = new Settings();
+        wang = new WangLHVModel(settings);
+        Rand rand = new Rand();
+        rand.setSeed(settings.getSeed());
+        trivial = new TrivialModel(settings, rand);
+        Random r = new Random(1234);
+        spins = new byte[N];
+        lambdas = new double[N];
+        angles = new double[N];
+        double[] all = {settings.getA()[0], settings.getA()[1], settings.getB()[0], settings.getB()[1]};
+        for (int i = 0; i < N; i++) {
+            lambdas[i] = r.nextDouble() * 180;
+            angles[i] = all[r.nextInt(4)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void wangComputeSpinB(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(wang.computeSpinB(angles[i], lambdas[i]));
+        }
+    }
+
+    /* the batch version, with one angle for all hidden variables */
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public byte[] wangComputeSpinsB() {
+        wang.computeSpinsB(angles[0], lambdas, 0, N, spins);
+        return spins;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public byte[] trivialComputeSpinsB() {
+        trivial.computeSpinsB(angles[0], lambdas, 0, N, spins);
+        return spins;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void trivialMeasure(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(trivial.computeSpinB(angles[i], lambdas[i]));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time per random number of the generators, and per call of the entangler.
+ * The skewed generator and the entangler are reset for each invocation, so
+ * all parts of their schedule (28/52/73 percent) are measured.
+ *
+ * @author croth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RandBenchmark {
+
+    static final int N = 1024;
+
+    @Param({"LEGACY", "SPLITMIX", "XOSHIRO"})
+    public Settings.RANDOMGENERATOR generator;
+
+    private Rand rand;
+    private SkewedRand skewed;
+    private Entangler entangler;
+
+    @Setup
+    public void setup() {
+        rand = new Rand(generator);
+        rand.setSeed(1234);
+        skewed = new SkewedRand(0.1, generator);
+        skewed.setSeed(1234);
+        Rand physics = new Rand(generator);
+        physics.setSeed(4321);
+        entangler = new Entangler(physics);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void randBit(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(rand.randBit());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void randDouble(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(rand.randDouble(0, 180));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void skewedRandBit(Blackhole bh) {
+        // randBit is called twice per trial
+        skewed.setTrials(N / 2);
+        for (int i = 0; i < N; i++) {
+            bh.consume(skewed.randBit());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void photonsCreatedAndEntangled(Blackhole bh) {
+        entangler.setTrials(N);
+        for (int i = 0; i < N; i++) {
+            bh.consume(entangler.photonsCreatedAndEntangled());
+        }
+    }
+}
@@ -53,8 +53,78 @@ public abstract class AbstractLHVModel implements Serializable{
      */
     public abstract int computeSpinB(double angleAtDetector, double lambda);
 
+    /*
+    Compute the spins at detector A for many hidden variables and one angle.
+    This default just calls computeSpinA for each hidden variable. Models can
+    override it with a loop without branches that the JIT can vectorize.
+    Models that need random numbers draw them in the order of the array.
+    @param angleAtDetector is the angle at detector A
+    @param lambdas the hidden variables
+    @param from the first index (inclusive)
+    @param to the last index (exclusive)
+    @param spins receives the spins (+1, 0 or -1 as for computeSpinA) at the same indices
+     */
+    public void computeSpinsA(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        for (int i = from; i < to; i++) {
+            spins[i] = (byte) computeSpinA(angleAtDetector, lambdas[i]);
+        }
+    }
+
+    /*
+    Compute the spins at detector B for many hidden variables and one angle.
+    @see computeSpinsA
+     */
+    public void computeSpinsB(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        for (int i = from; i < to; i++) {
+            spins[i] = (byte) computeSpinB(angleAtDetector, lambdas[i]);
+        }
+    }
+
+    /*
+    @return true if the spins only depend on the angle and the hidden variable
+    (no random numbers), so the engine can compute them in blocks
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
+    /*
+    The outcomes of computeSpinB for one angle as intervals of the hidden variable, so that
+    the expected counts of a run can be computed exactly (see Expectation).
+    This is only possible for deterministic models that know where their outcome changes.
+    @param angleAtDetector is the angle at the detector
+    @return the partition, or null if the model cannot tell (the default)
+     */
+    public OutcomePartition getPartition(double angleAtDetector) {
+        return null;
+    }
+
+    /*
+    The probability that computeSpinB gives the spin, for models that use random numbers
+    (such as the probability of a detection), so that they can be tabulated (see TabulatedModel).
+    A deterministic model has the probability 1 for its spin and 0 for the others (the default).
+    @param angleAtDetector is the angle at the detector
+    @param lambda is the hidden variable
+    @param spin +1, 0 or -1 (no detection)
+    @return the probability, or NaN if the model cannot tell
+     */
+    public double getProbability(double angleAtDetector, double lambda, int spin) {
+        if (!isDeterministic()) {
+            return Double.NaN;
+        }
+        return computeSpinB(angleAtDetector, lambda) == spin ? 1 : 0;
+    }
+
     public Settings getSettings() {
         return settings;
     }
 
+    /*
+    Create an independent instance of this model, such as for a worker thread.
+    @param settings the settings the new instance should use
+    @param rand the random generator for models that need random numbers
+    @return a new model of the same kind
+     */
+    public abstract AbstractLHVModel copy(Settings settings, Rand rand);
+
 }
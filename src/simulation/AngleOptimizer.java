@@ -0,0 +1,229 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds angles that maximize an inequality with far fewer evaluations than the
+ * 1 degree grid of Engine.findAngles. First a coarse grid is scanned, then the
+ * best points of the grid are refined with a pattern search (try a step up and
+ * down for each angle, halve the step when nothing improves) down to a
+ * fraction of a degree. Each time the step is halved the number of trials is
+ * doubled, because the differences that matter get smaller and the noise of
+ * the evaluations has to go down too. All evaluations use the same seed, so
+ * neighbouring points are compared with the same random numbers. For models
+ * that can compute their expected counts (see Expectation), these are used
+ * instead, which is exact and takes microseconds per point.
+ *
+ * @author croth
+ */
+public class AngleOptimizer {
+
+    private final Engine engine;
+    private final Inequality in;
+
+    /* the step of the coarse grid in degrees */
+    private double coarseStep = 15;
+
+    /* the pattern search stops when the step is smaller than this (in degrees) */
+    private double minStep = 0.05;
+
+    /* the number of trials for the coarse grid, and the maximum for the refinement */
+    private int startTrials = 1000;
+    private int maxTrials = 128000;
+
+    /* the number of points of the coarse grid that are refined */
+    private int starts = 3;
+
+    /* use the expected counts instead of runs, if the model can compute them */
+    private boolean expected = true;
+
+    /* the number of evaluations so far */
+    private long evaluations;
+
+    /*
+    @param engine the engine with the model and the settings to start from
+    @param in the inequality to maximize
+     */
+    public AngleOptimizer(Engine engine, Inequality in) {
+        this.engine = engine;
+        this.in = in;
+    }
+
+    /* Run the coarse scan and the refinement
+    @return the best configuration that was found
+     */
+    public AngleSearch.Best optimize() {
+        List<double[]> grid = new ArrayList<>();
+        for (double a1 = 0; a1 < 90; a1 += coarseStep) {
+            for (double a2 = 0; a2 < 90; a2 += coarseStep) {
+                for (double b1 = 0; b1 < 45; b1 += coarseStep) {
+                    for (double b2 = -45; b2 < 45; b2 += coarseStep) {
+                        if (a1 != a2 && b1 != b2) {
+                            grid.add(new double[]{a1, a2, b1, b2});
+                        }
+                    }
+                }
+            }
+        }
+        double[] values = evaluate(grid, startTrials);
+        Integer[] order = new Integer[grid.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> -values[i]));
+        p("Coarse scan: " + grid.size() + " points, best j=" + values[order[0]] + " at " + Arrays.toString(grid.get(order[0])));
+
+        AngleSearch.Best best = null;
+        for (int i = 0; i < Math.min(starts, order.length); i++) {
+            AngleSearch.Best b = refine(grid.get(order[i]));
+            p("Refined start " + (i + 1) + ": " + b.getSettings().toShortString() + ", j=" + b.getJ());
+            if (best == null || b.getJ() > best.getJ()) {
+                best = b;
+            }
+        }
+        p("Evaluations: " + evaluations);
+        return best;
+    }
+
+    /* Pattern search from the given point
+    @param start a1, a2, b1, b2
+    @return the best point, with the value at the final (largest) number of trials
+     */
+    private AngleSearch.Best refine(double[] start) {
+        double[] x = start.clone();
+        double step = coarseStep / 2;
+        int trials = startTrials;
+        double fx = evaluate(x, trials);
+        while (step >= minStep) {
+            List<double[]> neighbours = new ArrayList<>(8);
+            for (int d = 0; d < 4; d++) {
+                for (int sign = -1; sign <= 1; sign += 2) {
+                    double[] y = x.clone();
+                    y[d] += sign * step;
+                    neighbours.add(y);
+                }
+            }
+            double[] fy = evaluate(neighbours, trials);
+            int bestn = -1;
+            for (int i = 0; i < fy.length; i++) {
+                if (fy[i] > fx && (bestn < 0 || fy[i] > fy[bestn])) {
+                    bestn = i;
+                }
+            }
+            if (bestn >= 0) {
+                x = neighbours.get(bestn);
+                fx = fy[bestn];
+            } else {
+                step /= 2;
+                if (trials < maxTrials) {
+                    trials = Math.min(maxTrials, trials * 2);
+                    fx = evaluate(x, trials);
+                }
+            }
+        }
+        return new AngleSearch.Best(fx, toSettings(x));
+    }
+
+    /* Evaluate the points in parallel */
+    private double[] evaluate(List<double[]> points, int trials) {
+        return IntStream.range(0, points.size()).parallel()
+                .mapToDouble(i -> evaluate(points.get(i), trials)).toArray();
+    }
+
+    private double evaluate(double[] x, int trials) {
+        Inequality ineq = in.copy();
+        // the expected counts have no noise, so they always use the most trials
+        Counts counts = expected ? engine.expected(toSettings(x), maxTrials) : null;
+        ineq.setCounts(counts != null ? counts : engine.evaluate(toSettings(x), trials));
+        synchronized (this) {
+            evaluations++;
+        }
+        return ineq.compute();
+    }
+
+    private Settings toSettings(double[] x) {
+        Settings s = engine.settings.copy();
+        s.getA()[0] = x[0];
+        s.getA()[1] = x[1];
+        s.getB()[0] = x[2];
+        s.getB()[1] = x[3];
+        return s;
+    }
+
+    private static void p(String s) {
+        System.out.println(s);
+    }
+
+    /**
+     * @param coarseStep the step of the coarse grid in degrees
+     */
+    public void setCoarseStep(double coarseStep) {
+        this.coarseStep = coarseStep;
+    }
+
+    /**
+     * @param minStep the smallest step of the refinement in degrees
+     */
+    public void setMinStep(double minStep) {
+        this.minStep = minStep;
+    }
+
+    /**
+     * @param startTrials the number of trials for the coarse grid
+     */
+    public void setStartTrials(int startTrials) {
+        this.startTrials = startTrials;
+    }
+
+    /**
+     * @param maxTrials the maximum number of trials per evaluation
+     */
+    public void setMaxTrials(int maxTrials) {
+        this.maxTrials = maxTrials;
+    }
+
+    /**
+     * @param starts the number of points of the coarse grid to refine
+     */
+    public void setStarts(int starts) {
+        this.starts = starts;
+    }
+
+    /**
+     * @param expected true to use the expected counts instead of runs when the model can
+     * compute them (the default), false to always run the trials
+     */
+    public void setExpected(boolean expected) {
+        this.expected = expected;
+    }
+
+    /**
+     * @return the number of evaluations so far
+     */
+    public synchronized long getEvaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The grid search of Engine.findAngles, split into fork-join tasks. Each task
+ * handles one pair of angles a1 and a2 and walks all angles b1 and b2. The best
+ * configuration so far is shared by all tasks without locks, and the longer
+ * confirmation runs are done asynchronously so that the search does not wait
+ * for them.
+ *
+ * @author croth
+ */
+public class AngleSearch {
+
+    /* The number of trials to evaluate one configuration, and to confirm a good one */
+    static final int TRIALS = 1000;
+    static final int CONFIRMTRIALS = 100000;
+
+    /* The number of values for a1 and a2 */
+    private static final int NA1 = 90;
+    private static final int NA2 = 89;
+
+    private final Engine engine;
+    private final Inequality in;
+    private final int threads;
+
+    private final AtomicReference<Best> best = new AtomicReference<>();
+    private final AtomicLong count = new AtomicLong();
+
+    private ExecutorService confirmations;
+    private final Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+
+    /*
+    @param engine the engine with the model and the settings to start from
+    @param in the inequality to maximize
+    @param threads the number of threads for the search
+     */
+    public AngleSearch(Engine engine, Inequality in, int threads) {
+        this.engine = engine;
+        this.in = in;
+        this.threads = Math.max(1, threads);
+    }
+
+    /* Search the whole grid
+    @return the best configuration that broke the inequality (or null if there was none)
+     */
+    public Best search() {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        confirmations = Executors.newSingleThreadExecutor();
+        try {
+            pool.invoke(new Task(0, NA1 * NA2));
+            Future<?> f;
+            while ((f = pending.poll()) != null) {
+                f.get();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("Angle search failed: " + ex.getMessage(), ex);
+        } finally {
+            pool.shutdownNow();
+            confirmations.shutdownNow();
+        }
+        return best.get();
+    }
+
+    /* Walk all angles b1 and b2 for the given a1 and a2 */
+    private void search(double a1, double a2) {
+        Settings s = engine.settings.copy();
+        s.getA()[0] = a1;
+        s.getA()[1] = a2;
+        for (double b1 = 0; b1 < 45; b1++) {
+            if (b1 == a1 || b1 == a2) {
+                continue;
+            }
+            s.getB()[0] = b1;
+            for (double b2 = -45; b2 < 45; b2++) {
+                if (b1 == b2) {
+                    continue;
+                }
+                s.getB()[1] = b2;
+                evaluate(s);
+            }
+        }
+    }
+
+    private void evaluate(Settings s) {
+        Counts counts = engine.evaluate(s, TRIALS);
+        Inequality ineq = in.copy();
+        ineq.setCounts(counts);
+        double j = ineq.compute();
+        long n = count.incrementAndGet();
+        boolean passed = ineq.isBroken(j);
+
+        Best current = best.get();
+        double maxj = current == null ? 0 : current.getJ();
+        boolean promising = passed && j > maxj * 0.8;
+        if (n % 10000 == 0 || promising) {
+            String greenBold = passed ? "\033[34;1m" : "";
+            String reset = passed ? "\033[0m" : "";
+            p(n + ": " + greenBold + s.toShortString() + ", j=" + j + reset
+                    + ", " + Engine.f.format(counts.getPercentBothDetected()) + "% detected");
+        }
+        if (passed && offer(j, s)) {
+            p(s.toShortString());
+            p("j=" + j);
+        }
+        if (promising) {
+            final Settings snapshot = s.copy();
+            pending.add(confirmations.submit(() -> confirm(snapshot)));
+        }
+    }
+
+    /* Run the configuration again with more trials, and show the summary if it is still broken */
+    private void confirm(Settings s) {
+        Counts counts = engine.evaluate(s, CONFIRMTRIALS);
+        Inequality ineq = in.copy();
+        ineq.setCounts(counts);
+        if (ineq.isBroken(ineq.compute())) {
+            p(engine.getSummary(s, counts, ineq));
+        }
+    }
+
+    /* Replace the best configuration if j is at least as large
+    @return true if this is the new best configuration
+     */
+    private boolean offer(double j, Settings s) {
+        Best candidate = new Best(j, s.copy());
+        Best current;
+        do {
+            current = best.get();
+            if (current != null && current.getJ() > j) {
+                return false;
+            }
+        } while (!best.compareAndSet(current, candidate));
+        return true;
+    }
+
+    private static void p(String s) {
+        System.out.println(s);
+    }
+
+    /* A range of pairs a1/a2, which is split until there is just one pair */
+    private class Task extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+
+        Task(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                double a1 = from / NA2;
+                double a2 = 1 + from % NA2;
+                if (a1 != a2) {
+                    search(a1, a2);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Task(from, mid), new Task(mid, to));
+            }
+        }
+    }
+
+    /* The best value of the inequality so far, with the settings. Immutable */
+    public static final class Best {
+
+        private final double j;
+        private final Settings settings;
+
+        Best(double j, Settings settings) {
+            this.j = j;
+            this.settings = settings;
+        }
+
+        public double getJ() {
+            return j;
+        }
+
+        public Settings getSettings() {
+            return settings;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the buffers of a log to its file on a separate thread, so the trials
+ * do not wait for the disk. There is a fixed number of buffers: the engine
+ * fills one, hands it over with swap and gets an empty one back. When all
+ * buffers are waiting to be written, swap waits until one is free (so the
+ * memory never grows, and a slow disk slows down the run instead). With two
+ * buffers this is classic double buffering. close writes all remaining
+ * buffers, also if the JVM is shut down during a run.
+ *
+ * The writer thread can also compress the log (gzip). The file is then a
+ * series of gzip members: a member ends at each checkpoint (finishMember), so
+ * the file can be cut at the size of the last checkpoint and continued. Any
+ * gzip reader (such as GZIPInputStream or gunzip) reads all members as one
+ * stream.
+ *
+ * @author croth
+ */
+public class AsyncLogWriter {
+
+    private final FileChannel channel;
+
+    /* the empty buffers, and the full buffers in the order they have to be written */
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> full;
+
+    /* empty buffers that tell the thread to end the gzip member, or to stop */
+    private static final ByteBuffer FINISH = ByteBuffer.allocate(0);
+    private static final ByteBuffer STOP = ByteBuffer.allocate(0);
+
+    /* the gzip compression (null if the log is not compressed), only used by the writer thread */
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[1 << 16];
+    private final byte[] output = new byte[1 << 16];
+    private boolean inMember;
+    private long memberSize;
+
+    private final Thread thread;
+    private final Thread shutdownHook;
+
+    /* the buffers handed over and the buffers written (guarded by this) */
+    private long submitted;
+    private long done;
+
+    /* the buffer that is being filled (the last one returned by take), for the shutdown hook */
+    private volatile ByteBuffer current;
+
+    private volatile IOException error;
+    private volatile boolean closed;
+
+    /*
+    @param channel the file to write to
+    @param bufferSize the size of each buffer in bytes
+    @param buffers the number of buffers (at least 2: one to fill and one to write)
+    @param level the gzip compression level (0 - 9), or -1 to write the bytes as they are
+     */
+    public AsyncLogWriter(FileChannel channel, int bufferSize, int buffers, int level) {
+        this.channel = channel;
+        buffers = Math.max(2, buffers);
+        free = new ArrayBlockingQueue<>(buffers);
+        full = new LinkedBlockingQueue<>();
+        deflater = level < 0 ? null : new Deflater(Math.min(level, Deflater.BEST_COMPRESSION), true);
+        for (int i = 0; i < buffers; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        thread = new Thread(this::write, "log writer");
+        thread.setDaemon(true);
+        thread.start();
+        shutdownHook = new Thread(this::shutdown, "log writer shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /* @return an empty buffer to start with */
+    public ByteBuffer take() throws IOException {
+        try {
+            current = free.take();
+            return current;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a log buffer");
+        }
+    }
+
+    /*
+    Hand over a full buffer to be written, and get an empty one.
+    Waits if all buffers are still waiting to be written
+    @param buffer the buffer that was filled (from position 0 to its position)
+    @return an empty buffer
+     */
+    public ByteBuffer swap(ByteBuffer buffer) throws IOException {
+        checkError();
+        if (closed) {
+            throw new IOException("The log is closed");
+        }
+        buffer.flip();
+        submit(buffer);
+        return take();
+    }
+
+    private void submit(ByteBuffer buffer) {
+        synchronized (this) {
+            submitted++;
+        }
+        full.add(buffer);
+    }
+
+    /* Wait until all buffers handed over so far are in the file, and end the gzip member
+    (if the log is compressed), so the file can be cut here and continued */
+    public void finishMember() {
+        if (deflater != null) {
+            submit(FINISH);
+        }
+        sync();
+    }
+
+    /* Wait until all buffers handed over so far are in the file */
+    public void sync() {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (done < submitted && error == null && thread.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* The shutdown hook: like close, write the buffers handed over so far and the buffer that is
+    being filled, and end the gzip member. The trials may still run while the JVM shuts down, so the
+    last entry in the buffer can be incomplete, and later buffers are refused (see swap) */
+    private void shutdown() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ByteBuffer buffer = current;
+            if (buffer != null && buffer.position() > 0) {
+                // a view from 0 to the position, the engine keeps its own position and limit
+                ByteBuffer part = buffer.duplicate();
+                part.flip();
+                submit(part);
+            }
+            if (deflater != null) {
+                submit(FINISH);
+            }
+        }
+        sync();
+    }
+
+    /* Write all buffers handed over so far, and stop the thread (the channel is not closed) */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                // closed before, or by the shutdown hook: wait until its buffers are written
+                sync();
+                return;
+            }
+            closed = true;
+            submit(STOP);
+        }
+        sync();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down already
+        }
+        checkError();
+    }
+
+    /* Throw the error of the writer thread, if there was one */
+    public void checkError() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw new IOException("Could not write the log: " + e.getMessage(), e);
+        }
+    }
+
+    /* The writer thread */
+    private void write() {
+        try {
+            while (true) {
+                ByteBuffer buffer = full.take();
+                try {
+                    if (buffer == STOP || buffer == FINISH) {
+                        finish();
+                    } else if (deflater != null) {
+                        compress(buffer);
+                    } else {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+                if (buffer != STOP && buffer != FINISH) {
+                    buffer.clear();
+                    // offer: the view of the shutdown hook is one buffer more than the queue holds
+                    free.offer(buffer);
+                }
+                synchronized (this) {
+                    done++;
+                    notifyAll();
+                }
+                if (buffer == STOP) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the JVM is shutting down
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /* Compress the buffer into the current gzip member (start one if needed) */
+    private void compress(ByteBuffer buffer) throws IOException {
+        if (!inMember) {
+            // gzip header: magic, deflate, no flags, no time, no extra flags, unknown OS
+            byte[] header = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+            writeFully(header, header.length);
+            crc.reset();
+            memberSize = 0;
+            inMember = true;
+        }
+        while (buffer.hasRemaining()) {
+            int n = Math.min(input.length, buffer.remaining());
+            buffer.get(input, 0, n);
+            crc.update(input, 0, n);
+            memberSize += n;
+            deflater.setInput(input, 0, n);
+            while (!deflater.needsInput()) {
+                writeFully(output, deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH));
+            }
+        }
+    }
+
+    /* End the current gzip member: the rest of the compressed data and the trailer (crc and size) */
+    private void finish() throws IOException {
+        if (deflater == null || !inMember) {
+            return;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            writeFully(output, deflater.deflate(output));
+        }
+        int c = (int) crc.getValue();
+        int size = (int) memberSize;
+        byte[] trailer = {(byte) c, (byte) (c >> 8), (byte) (c >> 16), (byte) (c >> 24),
+            (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)};
+        writeFully(trailer, trailer.length);
+        deflater.reset();
+        inMember = false;
+    }
+
+    private void writeFully(byte[] bytes, int n) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(bytes, 0, n);
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the trials in a compact binary format, 3 bytes per trial. This is
+ * much faster and much smaller than log.csv. Use LogConverter to turn it into
+ * a csv file.
+ *
+ * The file starts with a header:
+ * <pre>
+ * int    MAGIC
+ * short  VERSION
+ * short  record size in bytes
+ * short  flags: bit 0 is set if the records have the index of the trial (version 2 and later)
+ * double a1, a2, b1, b2 (the angles in degrees)
+ * </pre>
+ * Each trial is then one record:
+ * <pre>
+ * byte   bit 0: setting A, bit 1: setting B, bits 2-3: spin A + 1, bits 4-5: spin B + 1
+ * short  lambda, quantized to 65536 steps over 0 - 180 degrees (unsigned)
+ * long   the index of the trial (only with the flag, when not all trials are logged, see LogPolicy)
+ * </pre>
+ *
+ * @author croth
+ */
+public class BinaryTrialLog extends TrialLog {
+
+    /* "EBLG" */
+    public static final int MAGIC = 0x45424C47;
+    public static final short VERSION = 2;
+    public static final int RECORDSIZE = 3;
+    public static final int INDEXEDRECORDSIZE = RECORDSIZE + 8;
+    public static final int HEADERSIZE = 4 + 2 + 2 + 2 + 4 * 8;
+
+    /* the size of the header of version 1 (without the flags) */
+    public static final int HEADERSIZE1 = HEADERSIZE - 2;
+
+    public static final int FLAGINDEXED = 1;
+
+    private final boolean indexed;
+    private final int recordsize;
+
+    /* the number of steps for the hidden variable */
+    static final double LAMBDASTEPS = 65536;
+
+    /*
+    @param file the name of the file
+    @param settings the settings with the angles for the header
+    @param append whether to append to an existing log (then the header must be the same)
+     */
+    public BinaryTrialLog(String file, Settings settings, boolean append) throws IOException {
+        super(file, append, settings);
+        indexed = policy.isIndexed();
+        recordsize = indexed ? INDEXEDRECORDSIZE : RECORDSIZE;
+        ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short) recordsize);
+        header.putShort((short) (indexed ? FLAGINDEXED : 0));
+        header.putDouble(settings.getA()[0]);
+        header.putDouble(settings.getA()[1]);
+        header.putDouble(settings.getB()[0]);
+        header.putDouble(settings.getB()[1]);
+        writeHeader(file, append, header.array());
+    }
+
+    @Override
+    protected void write(long trial, int whichA, int whichB, double angleA, double angleB,
+            int spinA, int spinB, double lambda) throws IOException {
+        if (buffer.remaining() < recordsize) {
+            flush();
+        }
+        buffer.put(encode(whichA, whichB, spinA, spinB));
+        buffer.putShort((short) quantize(lambda));
+        if (indexed) {
+            buffer.putLong(trial);
+        }
+    }
+
+    /* @return the settings and spins packed into one byte */
+    static byte encode(int whichA, int whichB, int spinA, int spinB) {
+        return (byte) (whichA | whichB << 1 | (spinA + 1) << 2 | (spinB + 1) << 4);
+    }
+
+    /* @return lambda in degrees as a number from 0 to 65535 */
+    static int quantize(double lambda) {
+        int q = (int) (lambda * LAMBDASTEPS / 180.0);
+        return Math.max(0, Math.min(q, (int) LAMBDASTEPS - 1));
+    }
+
+    /* @return the middle of the interval of the quantized lambda, in degrees */
+    static double dequantize(int q) {
+        return (q + 0.5) * 180.0 / LAMBDASTEPS;
+    }
+}
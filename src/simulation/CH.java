@@ -90,15 +90,15 @@ B2, -36.0, angle at detector B in degrees
         // the second number is lab 2
         // 1 is the first angle
         // 2 is the second angle
-        int n11 = getCounts().getCoincidenceCounts(0, 0); // N12(a, b)
-        int n12 = getCounts().getCoincidenceCounts(0, 1); // N12(a, b’)
-        int n21 = getCounts().getCoincidenceCounts(1, 0); // N12(a’, b)
-        int n22 = getCounts().getCoincidenceCounts(1, 1); // N12(a’, b’) 
-        int sA = getCounts().getSingleA(0);            // N1(a)
-        int sB = getCounts().getSingleB(1);            // N2(b')
+        long n11 = getCounts().getCoincidenceCounts(0, 0); // N12(a, b)
+        long n12 = getCounts().getCoincidenceCounts(0, 1); // N12(a, b’)
+        long n21 = getCounts().getCoincidenceCounts(1, 0); // N12(a’, b)
+        long n22 = getCounts().getCoincidenceCounts(1, 1); // N12(a’, b’) 
+        long sA = getCounts().getSingleA(0);            // N1(a)
+        long sB = getCounts().getSingleB(1);            // N2(b')
         // From Richard: N12(a, b) – N12(a, b’) + N12(a’, b) +N12(a’, b’) -N1(a’) – N2(b) <= 0
         
-        int j = n11   //  N12(a, b)
+        long j = n11   //  N12(a, b)
                 - n12 //  N12(a, b’)
                 + n21 //  N12(a’, b)
                 + n22 //  N12(a’, b’) 
@@ -115,12 +115,12 @@ B2, -36.0, angle at detector B in degrees
     @Override
     public String computeString() {
 
-        int n11 = getCounts().getCoincidenceCounts(0, 0); // N12(a, b)
-        int n12 = getCounts().getCoincidenceCounts(0, 1); // N12(a, b’)
-        int n21 = getCounts().getCoincidenceCounts(1, 0); // N12(a’, b)
-        int n22 = getCounts().getCoincidenceCounts(1, 1); // N12(a’, b’) 
-        int sA = getCounts().getSingleA(0);            // N1(a)
-        int sB = getCounts().getSingleB(1);            // N2(b')
+        long n11 = getCounts().getCoincidenceCounts(0, 0); // N12(a, b)
+        long n12 = getCounts().getCoincidenceCounts(0, 1); // N12(a, b’)
+        long n21 = getCounts().getCoincidenceCounts(1, 0); // N12(a’, b)
+        long n22 = getCounts().getCoincidenceCounts(1, 1); // N12(a’, b’) 
+        long sA = getCounts().getSingleA(0);            // N1(a)
+        long sB = getCounts().getSingleB(1);            // N2(b')
         
         String s = "\nName, CH inequality, see https://www.slideshare.net/gill1109/yet-another-statistical-analysis-of-the-data-of-the-loophole-free-experiments-of-2015-revised";
          // From Richard: N12(a, b) – N12(a, b’) + N12(a’, b) +N12(a’, b’) -N1(a’) – N2(b) <= 0
@@ -133,7 +133,7 @@ B2, -36.0, angle at detector B in degrees
 
         s += "\nCH," + CH;
 
-        int tot = getCounts().getTotalTrials();
+        long tot = getCounts().getTotalTrials();
 
         double pCH = CH / (double)tot;
 
@@ -142,4 +142,19 @@ B2, -36.0, angle at detector B in degrees
         return s;
     }
 
+    /*
+    @return the standard error of CH, if each count is a Poisson variable (so its variance is the count)
+    */
+    @Override
+    public double getStandardError() {
+        Counts c = getCounts();
+        return Math.sqrt(c.getCoincidenceCounts(0, 0) + c.getCoincidenceCounts(0, 1) + c.getCoincidenceCounts(1, 0)
+                + c.getCoincidenceCounts(1, 1) + c.getSingleA(0) + c.getSingleB(1));
+    }
+
+    @Override
+    public Inequality copy() {
+        return new CH();
+    }
+
 }
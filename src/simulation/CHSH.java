@@ -54,6 +54,27 @@ B2, -36.0, angle at detector B in degrees
     public boolean isBroken(double result) {
         return  result >2.0;
     }
+
+    @Override
+    public double getLimit() {
+        return 2.0;
+    }
+
+    /*
+    @return the standard error of S. Each correlation is the fraction p of the
+    n pairs (both detected) with the same spin, so its variance is p(1-p)/n
+    */
+    @Override
+    public double getStandardError() {
+        double var = 0;
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                double p = getCounts().getCorr(a, b);
+                var += p * (1 - p) / getCounts().getDetected(a, b);
+            }
+        }
+        return Math.sqrt(var);
+    }
     /*
      @return the preferred angles at detector A in degrees (such as 0, 45)
      */
@@ -118,4 +139,9 @@ cor22 <- mean((x * y)[a == 2 & b == 2])
         return s;
     }
 
+    @Override
+    public Inequality copy() {
+        return new CHSH();
+    }
+
 }
@@ -0,0 +1,217 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A small binary file with everything that is needed to continue a run: the
+ * settings, the names of the model and the inequality, the state of the random
+ * generators, the position in the current run and the counts. It is much
+ * smaller and faster than serializing the whole Engine, and it does not break
+ * when a class changes. The file is written to a temporary file first and then
+ * moved, so there is always a complete checkpoint, even if the program is
+ * killed while writing.
+ *
+ * @author croth
+ */
+public class Checkpoint {
+
+    /* "EBCK" */
+    public static final int MAGIC = 0x4542434B;
+    public static final short VERSION = 1;
+
+    /* Save the state of the engine
+    @param engine the engine to save
+    @param file the name of the checkpoint file
+     */
+    public static void save(Engine engine, String file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        Settings s = engine.settings;
+        out.writeDouble(s.getEntanglementEfficiency());
+        out.writeDouble(s.getA()[0]);
+        out.writeDouble(s.getA()[1]);
+        out.writeDouble(s.getB()[0]);
+        out.writeDouble(s.getB()[1]);
+        out.writeLong(s.getSeed());
+        out.writeLong(s.getTrials());
+        out.writeUTF(s.getAngleGenerator().name());
+        out.writeUTF(s.getLogFormat().name());
+
+        // a tabulated model is saved as the model it tabulates, and the table at the end
+        TabulatedModel table = engine.model instanceof TabulatedModel ? (TabulatedModel) engine.model : null;
+        out.writeUTF((table != null ? table.getModel() : engine.model).getClass().getSimpleName());
+        out.writeUTF(engine.inequality.getClass().getSimpleName());
+        out.writeBoolean(engine.writeLog);
+        out.writeBoolean(engine.fairGenerator);
+        out.writeDouble(engine.rand instanceof SkewedRand ? ((SkewedRand) engine.rand).getBias() : 0);
+
+        out.writeUTF(engine.rand.getGenerator().name());
+        out.writeLong(engine.rand.getSeed());
+        writeState(out, engine.rand.getState());
+        // the generator of the entangler (and of models that need random numbers)
+        out.writeUTF(engine.entangler.rand.getGenerator().name());
+        writeState(out, engine.entangler.rand.getState());
+
+        out.writeLong(engine.runTrials);
+        out.writeLong(engine.position);
+        out.writeLong(engine.logSize);
+        out.writeBoolean(engine.counts != null);
+        if (engine.counts != null) {
+            engine.counts.write(out);
+        }
+        out.writeByte(s.getLogCompression());
+        out.writeUTF(s.getLogPolicy().name());
+        out.writeLong(s.getLogPolicyValue());
+        out.writeInt(table != null ? table.getSteps() : 0);
+        out.writeBoolean(table != null && table.isInterpolated());
+        if (engine.counts != null) {
+            engine.counts.writeWindows(out);
+        }
+        out.writeUTF(engine.entangler.getProfile().toString());
+        out.flush();
+
+        Path target = Paths.get(file);
+        Path tmp = Paths.get(file + ".tmp");
+        Files.write(tmp, bytes.toByteArray());
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /* Create an engine from a checkpoint
+    @param file the name of the checkpoint file
+    @return an engine in the same state as the one that was saved
+     */
+    public static Engine load(String file) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(Paths.get(file))));
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a checkpoint file");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unknown version " + version + " of the checkpoint file");
+        }
+
+        Settings s = new Settings();
+        s.setEntanglementEfficiency(in.readDouble());
+        double[] A = {in.readDouble(), in.readDouble()};
+        double[] B = {in.readDouble(), in.readDouble()};
+        s.setSeed(in.readLong());
+        s.setTrials(in.readLong());
+        s.setAngleGenerator(Settings.LAMBDAGENERATOR.valueOf(in.readUTF()));
+        s.setLogFormat(Settings.LOGFORMAT.valueOf(in.readUTF()));
+
+        String modelName = in.readUTF();
+        AbstractLHVModel model;
+        if (modelName.equals("TrivialModel")) {
+            model = new TrivialModel(s);
+        } else if (modelName.equals("WangLHVModel")) {
+            model = new WangLHVModel(s);
+        } else {
+            throw new IOException("Unknown model " + modelName);
+        }
+        String ineqName = in.readUTF();
+        Inequality ineq;
+        if (ineqName.equals("CH")) {
+            ineq = new CH();
+        } else if (ineqName.equals("CHSH")) {
+            ineq = new CHSH();
+        } else if (ineqName.equals("Guistina2015")) {
+            ineq = new Guistina2015();
+        } else {
+            throw new IOException("Unknown inequality " + ineqName);
+        }
+        boolean writeLog = in.readBoolean();
+        boolean fair = in.readBoolean();
+        double bias = in.readDouble();
+
+        Engine engine = new Engine(model, ineq, fair);
+        // the engine uses the preferred angles of the inequality, so set the saved ones again
+        s.setA(A);
+        s.setB(B);
+        engine.setWriteLog(writeLog);
+        if (engine.rand instanceof SkewedRand) {
+            ((SkewedRand) engine.rand).setBias(bias);
+        }
+        Settings.RANDOMGENERATOR generator = Settings.RANDOMGENERATOR.valueOf(in.readUTF());
+        s.setRandomGenerator(generator);
+        engine.rand.setGenerator(generator);
+        engine.rand.setSeed(in.readLong());
+        engine.rand.setState(readState(in));
+        Rand physics = engine.entangler.rand;
+        physics.setGenerator(Settings.RANDOMGENERATOR.valueOf(in.readUTF()));
+        physics.setState(readState(in));
+
+        engine.runTrials = in.readLong();
+        engine.position = in.readLong();
+        engine.logSize = in.readLong();
+        if (in.readBoolean()) {
+            engine.counts = Counts.read(in);
+        }
+        s.setLogCompression(in.readByte());
+        s.setLogPolicy(Settings.LOGPOLICY.valueOf(in.readUTF()), in.readLong());
+        int steps = in.readInt();
+        boolean interpolate = in.readBoolean();
+        if (steps > 0) {
+            engine.model = new TabulatedModel(engine.model, steps, interpolate, engine.context.getPhysics());
+        }
+        if (engine.counts != null) {
+            engine.counts.readWindows(in);
+            engine.setWindows(engine.counts.getWindows());
+        }
+        try {
+            engine.setEfficiencyProfile(EfficiencyProfile.parse(in.readUTF()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown efficiency profile in the checkpoint file", e);
+        }
+        return engine;
+    }
+
+    private static void writeState(DataOutputStream out, long[] state) throws IOException {
+        out.writeShort(state.length);
+        for (long l : state) {
+            out.writeLong(l);
+        }
+    }
+
+    private static long[] readState(DataInputStream in) throws IOException {
+        long[] state = new long[in.readShort()];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = in.readLong();
+        }
+        return state;
+    }
+}
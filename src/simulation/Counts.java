@@ -19,10 +19,17 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 package simulation;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
  * Siimple class that counts the results of pairwise measurements
+ * The counts can also be kept per window of the run (such as per tenth of the
+ * trials), to see how the detection rates and the settings change during the
+ * run. For each window, the number of trials for each combination of settings
+ * and spins is kept in one flat array, and getWindow turns them into counts.
  *
  * @author croth
  */
@@ -30,57 +37,67 @@ public class Counts implements Serializable {
 
     private static final long serialversionUID = 1L;
 
-    private int[] singleA;
-    private int[] singleB;
-    private int[][] detected;
-    private int[][] plusplus;
-    private int[][] tot;
-    private int[][] coincidence;
-    private int[][] det_zero;
-    private int[][] zero_det;
-    private int[] Acounts;
-    private int[] Bcounts;
-    private int[][] settingcounts;
-
-    private int totalTrials;
-    private int bothDetected;
+    private long[] singleA;
+    private long[] singleB;
+    private long[][] detected;
+    private long[][] plusplus;
+    private long[][] tot;
+    private long[][] coincidence;
+    private long[][] det_zero;
+    private long[][] zero_det;
+    private long[] Acounts;
+    private long[] Bcounts;
+    private long[][] settingcounts;
+
+    private long totalTrials;
+    private long bothDetected;
+
+    /* The windows (null if there are none): the trials for each settings and spins
+    (CELLS per window, see cell), the trials per window, the position of the next
+    trial in the run, and the current window and where it ends */
+    private static final int CELLS = 36;
+    private long[] windowCounts;
+    private long windowSize;
+    private long position;
+    private int window;
+    private long windowEnd;
 
     public Counts() {
-        Acounts = new int[2];
-        settingcounts = new int[2][2];
-        Bcounts = new int[2];
-        plusplus = new int[2][2];
-        detected = new int[2][2];
-        coincidence = new int[2][2];
-        det_zero = new int[2][2];
-        zero_det = new int[2][2];
-        tot = new int[2][2];
-        singleA = new int[2];
-        singleB = new int[2];
+        Acounts = new long[2];
+        settingcounts = new long[2][2];
+        Bcounts = new long[2];
+        plusplus = new long[2][2];
+        detected = new long[2][2];
+        coincidence = new long[2][2];
+        det_zero = new long[2][2];
+        zero_det = new long[2][2];
+        tot = new long[2][2];
+        singleA = new long[2];
+        singleB = new long[2];
 
         totalTrials = 0;
     }
 
     /* @returns the number of trials where only A had a detection event */
-    public int getSingleA() {
+    public long getSingleA() {
         return singleA[0] + singleA[1];
     }
 
-    public int getSingleA(int whichA) {
+    public long getSingleA(int whichA) {
         return singleA[whichA];
     }
 
     /* @returns the number of trials where only B had a detection event */
-    public int getSingleB() {
+    public long getSingleB() {
         return singleB[0] + singleB[1];
     }
 
-    public int getSingleB(int whichB) {
+    public long getSingleB(int whichB) {
         return singleB[whichB];
     }
 
     /* @returns the number of total trials (includes non-detection evets) */
-    public int getTotalTrials() {
+    public long getTotalTrials() {
         return totalTrials;
     }
 
@@ -100,7 +117,7 @@ public class Counts implements Serializable {
     }
 
     /* @returns the number of trials where the spin measured at A and B was ++ */
-    public int getDetected(int whichA, int whichB) {
+    public long getDetected(int whichA, int whichB) {
         return detected[whichA][whichB];
     }
 
@@ -110,17 +127,17 @@ public class Counts implements Serializable {
     }
 
     /* @returns the number of trials where the spin measured at A and B was ++ */
-    public int getCoincidenceCounts(int whichA, int whichB) {
+    public long getCoincidenceCounts(int whichA, int whichB) {
         return coincidence[whichA][whichB];
     }
 
     /* @returns the number of trials where the spin measured at A and B was +0 */
-    public int getDetZero(int whichA, int whichB) {
+    public long getDetZero(int whichA, int whichB) {
         return det_zero[whichA][whichB];
     }
 
     /* @returns the number of trials where the spin measured at A and B was 0+ */
-    public int getZeroDet(int whichA, int whichB) {
+    public long getZeroDet(int whichA, int whichB) {
         return zero_det[whichA][whichB];
     }
 
@@ -135,50 +152,247 @@ public class Counts implements Serializable {
        @param spinB spin=1 means +, spin=0 means -, spin <0 means not detected
      */
     
-    public int getSettingA(int whichA){
+    public long getSettingA(int whichA){
         return Acounts[whichA];
     }
-    public int getSettingB(int whichB){
+    public long getSettingB(int whichB){
         return Bcounts[whichB];
     }
-     public int getSettingAB(int whichA, int whichB){
+     public long getSettingAB(int whichA, int whichB){
         return settingcounts[whichA][whichB];
     }
      
     public void addResultOfOnePair(int whichA, int whichB, int spinA, int spinB) {
+        add(whichA, whichB, spinA, spinB, 1);
+        if (windowCounts != null) {
+            if (position >= windowEnd) {
+                setPosition(position);
+            }
+            windowCounts[window * CELLS + cell(whichA, whichB, spinA, spinB)]++;
+        }
+        position++;
+    }
+
+    private static int cell(int whichA, int whichB, int spinA, int spinB) {
+        return (whichA * 2 + whichB) * 9 + (spinA < 0 ? 0 : spinA + 1) * 3 + (spinB < 0 ? 0 : spinB + 1);
+    }
+
+    /*
+    Keep the counts per window of the run. Each trial is added to the window of its position
+    in the run, and the trials after the last window are added to the last window
+    @param windows the number of windows (0 for none)
+    @param trials the trials of the run, which are split into windows of the same size
+     */
+    public void setWindows(int windows, long trials) {
+        if (windows <= 0) {
+            windowCounts = null;
+            return;
+        }
+        windowCounts = new long[windows * CELLS];
+        windowSize = getWindowSize(windows, trials);
+        setPosition(0);
+    }
+
+    /* @param position the position in the run of the next trial that is added (such as the start of a chunk) */
+    public void setPosition(long position) {
+        this.position = position;
+        if (windowCounts != null) {
+            int windows = windowCounts.length / CELLS;
+            window = (int) Math.min(windows - 1, position / windowSize);
+            windowEnd = window == windows - 1 ? Long.MAX_VALUE : (window + 1) * windowSize;
+        }
+    }
+
+    /* @return the number of windows (0 if the counts are not kept per window) */
+    public int getWindows() {
+        return windowCounts == null ? 0 : windowCounts.length / CELLS;
+    }
+
+    /* @return the number of trials per window when a run of the given trials is split into windows */
+    public static long getWindowSize(int windows, long trials) {
+        return Math.max(1, (trials + windows - 1) / windows);
+    }
+
+    /* @return the number of trials per window */
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    /*
+    @param w the window (0 based)
+    @return the counts of the trials in the window, which can be used like the counts of a run
+     */
+    public Counts getWindow(int w) {
+        Counts c = new Counts();
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                for (int sa = -1; sa <= 1; sa++) {
+                    for (int sb = -1; sb <= 1; sb++) {
+                        long n = windowCounts[w * CELLS + cell(a, b, sa, sb)];
+                        if (n > 0) {
+                            c.add(a, b, sa, sb, n);
+                        }
+                    }
+                }
+            }
+        }
+        return c;
+    }
+
+    /* Add n trials with the same settings and spins (such as expected counts, see Expectation)
+       @see addResultOfOnePair
+     */
+    void add(int whichA, int whichB, int spinA, int spinB, long n) {
 
-        totalTrials++;
+        totalTrials += n;
 
         boolean Adetected = spinA >= 0;
         boolean Bdetected = spinB >= 0;
 
         if (spinA == 1) {
-            singleA[whichA]++;
+            singleA[whichA] += n;
         }
         if (spinB == 1) {
-            singleB[whichB]++;
+            singleB[whichB] += n;
         }
-        settingcounts[whichA][whichB]++;
-        Acounts[whichA]++;
-        Bcounts[whichB]++;
+        settingcounts[whichA][whichB] += n;
+        Acounts[whichA] += n;
+        Bcounts[whichB] += n;
         if (totalTrials < 10) {
             //   p("whichA: "+whichA+", whichB: "+whichB+", spinA: "+spinA+", spinB: "+spinB);
         }
         if (!Adetected && !Bdetected) {
             // BOTH NOT DETECTED  - THEY ARE NOT RECORDED ANYWHERE          
         } else if (!Adetected) {  // ONLY B DETECTED
-            zero_det[whichA][whichB]++;
+            zero_det[whichA][whichB] += n;
         } else if (!Bdetected) {  // ONLY A DETECTED
-            det_zero[whichA][whichB]++;
+            det_zero[whichA][whichB] += n;
         } else if (Adetected && Bdetected) { // BOTH ARE DETECTED, 
-            tot[whichA][whichB]++;
-            bothDetected++;
-            detected[whichA][whichB]++;
+            tot[whichA][whichB] += n;
+            bothDetected += n;
+            detected[whichA][whichB] += n;
             if (spinA == spinB) {
-                coincidence[whichA][whichB]++;
+                coincidence[whichA][whichB] += n;
             }
             if (spinA == 1 && spinB == 1) {
-                plusplus[whichA][whichB]++;
+                plusplus[whichA][whichB] += n;
+            }
+        }
+    }
+
+    /* Write all counters (for a checkpoint) */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(totalTrials);
+        out.writeLong(bothDetected);
+        for (int i = 0; i < 2; i++) {
+            out.writeLong(singleA[i]);
+            out.writeLong(singleB[i]);
+            out.writeLong(Acounts[i]);
+            out.writeLong(Bcounts[i]);
+            for (int j = 0; j < 2; j++) {
+                out.writeLong(detected[i][j]);
+                out.writeLong(plusplus[i][j]);
+                out.writeLong(tot[i][j]);
+                out.writeLong(coincidence[i][j]);
+                out.writeLong(det_zero[i][j]);
+                out.writeLong(zero_det[i][j]);
+                out.writeLong(settingcounts[i][j]);
+            }
+        }
+    }
+
+    /* Read all counters in the order of write */
+    public static Counts read(DataInput in) throws IOException {
+        Counts c = new Counts();
+        c.totalTrials = in.readLong();
+        c.bothDetected = in.readLong();
+        for (int i = 0; i < 2; i++) {
+            c.singleA[i] = in.readLong();
+            c.singleB[i] = in.readLong();
+            c.Acounts[i] = in.readLong();
+            c.Bcounts[i] = in.readLong();
+            for (int j = 0; j < 2; j++) {
+                c.detected[i][j] = in.readLong();
+                c.plusplus[i][j] = in.readLong();
+                c.tot[i][j] = in.readLong();
+                c.coincidence[i][j] = in.readLong();
+                c.det_zero[i][j] = in.readLong();
+                c.zero_det[i][j] = in.readLong();
+                c.settingcounts[i][j] = in.readLong();
+            }
+        }
+        return c;
+    }
+
+    /* Write the windows (for a checkpoint) */
+    public void writeWindows(DataOutput out) throws IOException {
+        out.writeInt(getWindows());
+        if (windowCounts != null) {
+            out.writeLong(windowSize);
+            out.writeLong(position);
+            for (long n : windowCounts) {
+                out.writeLong(n);
+            }
+        }
+    }
+
+    /* Read the windows in the order of writeWindows */
+    public void readWindows(DataInput in) throws IOException {
+        int windows = in.readInt();
+        if (windows <= 0) {
+            windowCounts = null;
+            return;
+        }
+        windowCounts = new long[windows * CELLS];
+        windowSize = in.readLong();
+        long p = in.readLong();
+        for (int i = 0; i < windowCounts.length; i++) {
+            windowCounts[i] = in.readLong();
+        }
+        setPosition(p);
+    }
+
+    /* @return a copy of the current counts that does not change when more results are added */
+    public Counts snapshot() {
+        Counts c = new Counts();
+        if (windowCounts != null) {
+            c.windowCounts = new long[windowCounts.length];
+            c.windowSize = windowSize;
+        }
+        c.merge(this);
+        c.setPosition(position);
+        return c;
+    }
+
+    /* Add all counts of another Counts object to this one (such as the counts of a worker thread).
+       If this one has windows, the other one must have the same windows
+       @param other the counts to add
+     */
+    public void merge(Counts other) {
+        if (windowCounts != null) {
+            if (other.windowCounts == null || windowCounts.length != other.windowCounts.length
+                    || windowSize != other.windowSize) {
+                throw new IllegalArgumentException("The counts to merge do not have the same windows");
+            }
+            for (int i = 0; i < windowCounts.length; i++) {
+                windowCounts[i] += other.windowCounts[i];
+            }
+        }
+        totalTrials += other.totalTrials;
+        bothDetected += other.bothDetected;
+        for (int i = 0; i < 2; i++) {
+            singleA[i] += other.singleA[i];
+            singleB[i] += other.singleB[i];
+            Acounts[i] += other.Acounts[i];
+            Bcounts[i] += other.Bcounts[i];
+            for (int j = 0; j < 2; j++) {
+                detected[i][j] += other.detected[i][j];
+                plusplus[i][j] += other.plusplus[i][j];
+                tot[i][j] += other.tot[i][j];
+                coincidence[i][j] += other.coincidence[i][j];
+                det_zero[i][j] += other.det_zero[i][j];
+                zero_det[i][j] += other.zero_det[i][j];
+                settingcounts[i][j] += other.settingcounts[i][j];
             }
         }
     }
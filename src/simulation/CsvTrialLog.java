@@ -0,0 +1,77 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+
+/**
+ * Writes the trials as text into log.csv (one line per trial). This is easy to
+ * read, but slow and large for long runs.
+ *
+ * @author croth
+ */
+public class CsvTrialLog extends TrialLog {
+
+    static final String HEADER = "Setting A, Setting B, Angle A, Angle B, Spin A, Spin B, A Detected, B Detected,  Hidden variable\n";
+
+    /* the first column when not all trials are logged (see LogPolicy) */
+    static final String TRIAL = "Trial, ";
+
+    private final DecimalFormat f = new DecimalFormat("#.##");
+
+    private final StringBuilder line = new StringBuilder(128);
+
+    /*
+    @param file the name of the file
+    @param settings the settings with the memory for the buffers
+    @param append whether to append to an existing log (then the header must be the same)
+     */
+    public CsvTrialLog(String file, Settings settings, boolean append) throws IOException {
+        super(file, append, settings);
+        String header = policy.isIndexed() ? TRIAL + HEADER : HEADER;
+        writeHeader(file, append, header.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    protected void write(long trial, int whichA, int whichB, double angleA, double angleB,
+            int spinA, int spinB, double lambda) throws IOException {
+        line.setLength(0);
+        if (policy.isIndexed()) {
+            line.append(trial).append(", ");
+        }
+        line.append(whichA).append(", ").append(whichB).append(", ").append(angleA).append(", ").append(angleB)
+                .append(", ").append(spinA).append(", ").append(spinB)
+                .append(", ").append(spinA >= 0 ? 1 : 0).append(", ").append(spinB >= 0 ? 1 : 0)
+                .append(", ").append(f.format(lambda)).append('\n');
+        write(line);
+    }
+
+    /* the lines only contain ascii characters */
+    private void write(CharSequence s) throws IOException {
+        if (buffer.remaining() < s.length()) {
+            flush();
+        }
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+}
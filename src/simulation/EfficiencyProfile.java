@@ -0,0 +1,199 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the efficiency of the entangler changes during a run. The run is split
+ * into segments that start at a percentage of the trials, and in each segment
+ * the efficiency is divided by the factor a number of times (the power), such
+ * as twice in the first 28% of the trials. A profile is immutable and can be
+ * written as text, such as factor=1.9,0:2,28:1,52:0,73:1 (the standard
+ * profile), so it can be given on the command line and saved in a checkpoint.
+ * The first trial of each segment is computed once per run (see
+ * getStartTrial), exactly like the percentage in earlier versions of the
+ * entangler, so the entangler only compares its counter with the end of the
+ * current segment.
+ *
+ * @author croth
+ */
+public final class EfficiencyProfile implements Serializable {
+
+    private static final long serialversionUID = 1L;
+
+    /* the efficiency is divided by the factor twice until 28% of the trials, once until 52%,
+    not at all until 73% and once until the end */
+    public static final EfficiencyProfile STANDARD = new EfficiencyProfile(Entangler.FACTOR,
+            new double[]{0, 28, 52, 73}, new double[]{2, 1, 0, 1});
+
+    private final double factor;
+
+    /* where each segment starts, in percent of the trials (the first one at 0) */
+    private final double[] starts;
+
+    /* how many times the efficiency is divided by the factor in each segment */
+    private final double[] powers;
+
+    /*
+    @param factor the efficiency factor (greater than 0)
+    @param starts where each segment starts in percent, increasing from 0 to at most 100
+    @param powers how many times the efficiency is divided by the factor in each segment
+     */
+    public EfficiencyProfile(double factor, double[] starts, double[] powers) {
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("The factor must be greater than 0: " + factor);
+        }
+        if (starts.length == 0 || starts.length != powers.length) {
+            throw new IllegalArgumentException("Each segment needs a start and a power");
+        }
+        if (starts[0] != 0) {
+            throw new IllegalArgumentException("The first segment must start at 0");
+        }
+        for (int i = 1; i < starts.length; i++) {
+            if (!(starts[i] > starts[i - 1]) || starts[i] > 100) {
+                throw new IllegalArgumentException("The starts of the segments must increase up to 100: " + starts[i]);
+            }
+        }
+        this.factor = factor;
+        this.starts = starts.clone();
+        this.powers = powers.clone();
+    }
+
+    /* @return the same segments with another factor */
+    public EfficiencyProfile withFactor(double factor) {
+        return new EfficiencyProfile(factor, starts, powers);
+    }
+
+    /*
+    Read a profile such as factor=1.9,0:2,28:1,52:0,73:1. The factor is optional (default 1.9),
+    without segments the standard segments are used (so factor=2.5 just changes the factor)
+    @param spec the description of the profile
+    @return the profile
+     */
+    public static EfficiencyProfile parse(String spec) {
+        double f = Entangler.FACTOR;
+        List<double[]> segments = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            int eq = item.indexOf('=');
+            if (eq > 0) {
+                if (!item.substring(0, eq).trim().equalsIgnoreCase("factor")) {
+                    throw new IllegalArgumentException("Unknown parameter " + item);
+                }
+                f = Double.parseDouble(item.substring(eq + 1).trim());
+            } else {
+                String[] parts = item.split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("A segment must be start:power, not " + item);
+                }
+                segments.add(new double[]{Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim())});
+            }
+        }
+        if (segments.isEmpty()) {
+            return STANDARD.withFactor(f);
+        }
+        double[] s = new double[segments.size()];
+        double[] p = new double[segments.size()];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = segments.get(i)[0];
+            p[i] = segments.get(i)[1];
+        }
+        return new EfficiencyProfile(f, s, p);
+    }
+
+    /* @return the number of segments */
+    public int size() {
+        return starts.length;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    /* @return where the segment starts, in percent of the trials */
+    public double getStart(int segment) {
+        return starts[segment];
+    }
+
+    /* @return how many times the efficiency is divided by the factor in the segment */
+    public double getPower(int segment) {
+        return powers[segment];
+    }
+
+    /* @return the probability that the photons are created and entangled in the segment
+    (for whole powers the efficiency is divided by the factor that many times, like in
+    earlier versions of the entangler, so the results do not change) */
+    public double getEfficiency(int segment) {
+        double power = powers[segment];
+        if (power == Math.rint(power) && Math.abs(power) <= 64) {
+            double e = 1.0;
+            for (int i = 0; i < power; i++) {
+                e /= factor;
+            }
+            for (int i = 0; i > power; i--) {
+                e *= factor;
+            }
+            return e;
+        }
+        return 1.0 / Math.pow(factor, power);
+    }
+
+    /* The first trial of a segment: the trial t is in the segment if (t + 1) * 100.0 / trials
+    is at least the start of the segment (and less than the start of the next one)
+    @param segment the segment (0 to size() - 1)
+    @param trials the number of trials of the run
+    @return the index of the first trial (0 based) of the segment
+     */
+    public long getStartTrial(int segment, long trials) {
+        if (segment == 0 || trials <= 0) {
+            return 0;
+        }
+        double percent = starts[segment];
+        // the counter is the index of the trial + 1
+        long c = Math.max(1, (long) Math.ceil(percent / 100.0 * trials));
+        while (c > 1 && (c - 1) * 100.0 / trials >= percent) {
+            c--;
+        }
+        while (c * 100.0 / trials < percent) {
+            c++;
+        }
+        return Math.min(trials, c - 1);
+    }
+
+    /* @return the profile as text, so that parse gives the same profile */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("factor=").append(factor);
+        for (int i = 0; i < starts.length; i++) {
+            b.append(',').append(format(starts[i])).append(':').append(format(powers[i]));
+        }
+        return b.toString();
+    }
+
+    private static String format(double d) {
+        return d == Math.rint(d) && Math.abs(d) < 1e15 ? String.valueOf((long) d) : String.valueOf(d);
+    }
+}
@@ -24,8 +24,15 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.JMException;
 
 /**
  * Just a simple class that runs N trias with the given lhv model and inequality
@@ -37,10 +44,18 @@ public class Engine implements Serializable {
     private static final long serialversionUID = 1L;
 
     static DecimalFormat f = new DecimalFormat("#.##");
+
+    /* The number of trials per chunk in a parallel run. It must not depend on the number
+    of threads, otherwise the result for a given seed would depend on the threads */
+    static final int CHUNK = 1 << 16;
+
     /* The seetings auch as angles a1, a2, b1, bc etc */
     Settings settings;
 
-    /*Random number generator */
+    /* The random generators of this engine (see RandContext) */
+    RandContext context;
+
+    /*Random number generator for the settings and the hidden variable (the choices of the context) */
     Rand rand;
 
     /* The model that computes the spin, given an angle and a hidden variable */
@@ -55,46 +70,105 @@ public class Engine implements Serializable {
     /* Which in equality to use, such as CH, "Guistina2015" or other (whatever you like)*/
     Inequality inequality;
 
-    /* Just for writing a "log" file with the results */
-    String log;
+    /* Just for writing a "log" file with the results (log.bin or log.csv) */
+    transient TrialLog log;
 
     /* Whether to write the results into a file or not */
     boolean writeLog;
 
+    /* Whether a run with a log also writes and prints the summary (the benchmarks only time the log) */
+    boolean writeSummary = true;
+
     /* Whether we use a fair random generator or an unfair one */
     boolean fairGenerator;
 
+    /* The number of trials of the current run, and the next trial of the run */
+    long runTrials;
+    long position;
+
+    /* The size of the log file at the last checkpoint */
+    long logSize;
+
+    /* The early stop (see setEarlyStop): the number of standard errors (0 for no early stop),
+    the trials before the first check, and the next check during a run */
+    static final long STOPGROWTH = 2;
+    transient double stopZ;
+    transient long stopMin = 10000;
+    private transient long stopCheck = Long.MAX_VALUE;
+
+    /* The JMX metrics (null if they are not enabled, see enableMetrics). They are updated
+    every METRICSEVERY trials, and the phases are timed for one in SAMPLEEVERY trials
+    (or one in SAMPLEBLOCKS blocks) */
+    static final int METRICSEVERY = 1 << 16;
+    static final int SAMPLEEVERY = 1 << 10;
+    static final int SAMPLEBLOCKS = 1 << 4;
+    transient EngineMetrics metrics;
+    private transient long pairs;
+    private transient long blocks;
+    private transient boolean timedPair;
+    private transient long pairStart;
+
+    /* The values of all inequalities during the run (see ValueSeries): the points are
+    recorded every seriesEvery trials (0 for SERIESSIZE points per run), and at most
+    seriesSize points are kept. seriesNext is the next trial of the run with a point */
+    static final int SERIESSIZE = 64;
+    transient long seriesEvery;
+    transient int seriesSize = SERIESSIZE;
+    transient ValueSeries series;
+    private transient long seriesNext = Long.MAX_VALUE;
+    private transient long seriesStep;
+
+    /* The number of windows of a run to keep the counts for (see Counts.setWindows) */
+    transient int windows;
+
+    /* Where and how often to write a checkpoint during a run */
+    transient String checkpointFile;
+    transient long checkpointEvery;
+
     /*
     Just a simple class that runs N trias with the given lhv model and inequality
     @param lhv a local hidden variable model
     @param ineq an inequality (like CH)
+    @param fairGenerator true for a fair random generator, false for a skewed one (with the default bias)
      */
     public Engine(AbstractLHVModel lhv, Inequality ineq, boolean fairGenerator) {
+        this(lhv, ineq, RandContext.create(lhv.getSettings(), fairGenerator ? Double.NaN : SkewedRand.BIAS));
+    }
+
+    /*
+    @param lhv a local hidden variable model (the engine uses a copy with the generator of the context)
+    @param ineq an inequality (like CH)
+    @param context the random generators, which belong to this engine from now on
+     */
+    public Engine(AbstractLHVModel lhv, Inequality ineq, RandContext context) {
         this.model = lhv;
         this.settings = model.getSettings();
-        this.fairGenerator = fairGenerator;
-        createRand();
+        setRandContext(context);
         // Normally we want to write a log
         this.writeLog = true;
-        this.settings = model.getSettings();
         this.inequality = ineq;
         if (inequality == null) {
             inequality = new CH();
         }
-        this.entangler = new Entangler();
         this.settings.setA(inequality.getPreferredA());
         this.settings.setB(ineq.getPreferredB());
 
     }
 
-    private void createRand() {
-        //rand = Rand.getRand();
-        if (fairGenerator) {
-            rand = Rand.getRand();
-        } else {
-            rand = SkewedRand.getRand(true, 0.1);
-        }
-        rand.setSeed(settings.getSeed());
+    /* Use other random generators: the entangler and the model get the generator for the physics */
+    private void setRandContext(RandContext context) {
+        this.context = context;
+        this.rand = context.getChoices();
+        this.fairGenerator = !(rand instanceof SkewedRand);
+        EfficiencyProfile profile = entangler == null ? EfficiencyProfile.STANDARD : entangler.getProfile();
+        this.entangler = new Entangler(context.getPhysics());
+        entangler.setProfile(profile);
+        this.model = model.copy(settings, context.getPhysics());
+    }
+
+    /* Start the random generators again from the seed of the settings */
+    private void resetRand() {
+        context.setSeed(settings.getSeed());
     }
 
     /* Run given number of trials, and if value is specified,
@@ -103,57 +177,622 @@ public class Engine implements Serializable {
     @values user supplied (random) settings for angles A and B (which can be null)
     @continueExperiment whether this is a new experiment or whether we continue to collect data from a previous run
      */
-    public double run(int trials, int[][] values, boolean continueExperiment) {
+    public double run(long trials, PackedSettings values, boolean continueExperiment) {
 
-        if (counts == null || !continueExperiment) {
+        boolean append = counts != null && continueExperiment;
+        if (!append) {
             counts = new Counts();
-            String header = "Setting A, Setting B, Angle A, Angle B, Spin A, Spin B, A Detected, B Detected,  Hidden variable\n";
-            writeFile(header, "log.csv", false);
         }
-        log = "";
+        openLog(append);
+        if (values != null && values.size() > 0) {
+            trials = values.size();
+        }
+        prepareWindows(append, trials);
         rand.setTrials(trials);
         entangler.setTrials(trials);
-        if (values != null && values.length > 0) {
-            trials = values.length;
+        runTrials = trials;
+        position = 0;
+        return runFrom(values);
+    }
+
+    /* Set up the windows of the counts for a run. A new run gets new windows. A continued run
+    adds to the windows of the earlier runs (by the position in the run), so it keeps them only
+    if they have the same size
+    @param append whether the run continues the counts of earlier runs
+    @param trials the number of trials of the run
+     */
+    private void prepareWindows(boolean append, long trials) {
+        if (!append) {
+            counts.setWindows(windows, trials);
+        } else if (counts.getWindows() > 0
+                && counts.getWindowSize() != Counts.getWindowSize(counts.getWindows(), trials)) {
+            p("The windows are dropped, a continued run needs the same number of trials as the earlier runs");
+            counts.setWindows(0, trials);
+        }
+    }
 
-            for (int t = 0; t < trials; t++) {
+    /* Finish a run that was interrupted, such as a run that was loaded from a checkpoint
+    that was written during the run. The random generators continue exactly where they were.
+    @values the same user supplied settings as for the interrupted run (which can be null)
+     */
+    public double resume(PackedSettings values) {
+        openLog(true);
+        if (log != null) {
+            try {
+                // drop what was logged after the checkpoint
+                log.truncate(logSize);
+            } catch (IOException e) {
+                p("Could not truncate the log file because " + e.getMessage());
+            }
+        }
+        rand.setTrials(runTrials);
+        rand.setPosition(position);
+        entangler.setTrials(runTrials);
+        entangler.setPosition(position);
+        return runFrom(values);
+    }
+
+    /* @return true if the last run was not finished (such as a run loaded from a checkpoint) */
+    public boolean isInterrupted() {
+        return position < runTrials;
+    }
+
+    /* Run the trials of the current run, starting at position */
+    private double runFrom(PackedSettings values) {
+        long trials = runTrials;
+        stopCheck = stopZ > 0 ? firstStopCheck(position) : Long.MAX_VALUE;
+        startSeries(position, trials);
+        counts.setPosition(position);
+        if (metrics != null) {
+            metrics.start(counts, trials);
+        }
+        long used;
+        try {
+            used = runUntil(values, trials);
+        } catch (RuntimeException | Error e) {
+            // the run was cancelled: write what was logged so far
+            closeLog();
+            throw e;
+        }
+        position = used;
+        finishSeries();
+        if (used < trials) {
+            p("Stopped after " + used + " of " + trials + " trials, the result is settled");
+            // the run is finished (the efficiency changes during the run were planned for all trials though)
+            runTrials = used;
+        }
+        if (metrics != null) {
+            metrics.stop(counts, getLogBytes());
+        }
+
+        closeLog();
+        inequality.setCounts(counts);
+        if (writeLog && writeSummary) {
+            writeResults();
+        }
+        return inequality.compute();
+    }
+
+    /* Run the trials from position to trials, one by one or in blocks
+    @return the number of trials that were run (fewer if the run was stopped early)
+     */
+    private long runUntil(PackedSettings values, long trials) {
+        if (model.isDeterministic()) {
+            return runBlocks(values, trials);
+        } else if (values != null && values.size() > 0) {
+            for (long t = position; t < trials; t++) {
                 // Use the angles from the user supplied values
-                if (values[t][0] >= 0 && values[t][1] >= 0) {
-                    runOnePair(rand.randDouble(0, 180), values[t][0], values[t][1]);
-                    if (t > 0 && t % 500000 == 0) {
-                        p("Trial " + t + " of " + trials + " with " + values[t][0] + " and " + values[t][1]);
-                    }
-                } else {
-                    p("Found illegal settings " + values[t][0] + "/" + values[t][1]);
+                startPair();
+                int whichA = values.getA(t);
+                int whichB = values.getB(t);
+                runOnePair(t, rand.randDouble(0, 180), whichA, whichB);
+                if (t > 0 && t % 500000 == 0) {
+                    p("Trial " + t + " of " + trials + " with " + whichA + " and " + whichB);
+                }
+                if (checkpointEvery > 0 && (t + 1) % checkpointEvery == 0) {
+                    saveCheckpoint(t + 1);
+                }
+                if (t + 1 == seriesNext) {
+                    recordSeries();
+                }
+                if (metrics != null && ((t + 1) & (METRICSEVERY - 1)) == 0) {
+                    metrics.publish(counts, getLogBytes());
+                }
+                if (t + 1 == stopCheck && isSettled(t + 1)) {
+                    return t + 1;
                 }
-
             }
         } else if (settings.getAngleGenerator() == Settings.LAMBDAGENERATOR.RANDOMANGLES) {
             // Generate random angles for each trial
-            for (int t = 0; t < trials; t++) {
+            for (long t = position; t < trials; t++) {
+                startPair();
                 int whichA = rand.randBit();
                 int whichB = rand.randBit();
-                runOnePair(rand.randDouble(0, 180), whichA, whichB);
+                runOnePair(t, rand.randDouble(0, 180), whichA, whichB);
                 if (t > 0 && t % 500000 == 0) {
                     p("Trial " + t + " of " + trials);
                 }
+                if (checkpointEvery > 0 && (t + 1) % checkpointEvery == 0) {
+                    saveCheckpoint(t + 1);
+                }
+                if (t + 1 == seriesNext) {
+                    recordSeries();
+                }
+                if (metrics != null && ((t + 1) & (METRICSEVERY - 1)) == 0) {
+                    metrics.publish(counts, getLogBytes());
+                }
+                if (t + 1 == stopCheck && isSettled(t + 1)) {
+                    return t + 1;
+                }
             }
         } else {
-            for (int t = 0; t < trials;) {
-                // Iterate over all the angles uniformly
-                for (double photonAngle = 0; photonAngle < 180; photonAngle++) {
-                    int whichA = rand.randBit();
-                    int whichB = rand.randBit();
-                    runOnePair(photonAngle, whichA, whichB);
-                    t++;
-                    if (t % 500000 == 0) {
-                        p("Trial " + t + " of " + trials );
-                    }
+            // Iterate over all the angles uniformly
+            for (long t = position; t < trials; t++) {
+                startPair();
+                int whichA = rand.randBit();
+                int whichB = rand.randBit();
+                runOnePair(t, t % 180, whichA, whichB);
+                if ((t + 1) % 500000 == 0) {
+                    p("Trial " + (t + 1) + " of " + trials);
+                }
+                if (checkpointEvery > 0 && (t + 1) % checkpointEvery == 0) {
+                    saveCheckpoint(t + 1);
+                }
+                if (t + 1 == seriesNext) {
+                    recordSeries();
+                }
+                if (metrics != null && ((t + 1) & (METRICSEVERY - 1)) == 0) {
+                    metrics.publish(counts, getLogBytes());
+                }
+                if (t + 1 == stopCheck && isSettled(t + 1)) {
+                    return t + 1;
                 }
+            }
+        }
+        return trials;
+    }
 
+    /* Run the trials in blocks (for deterministic models). The blocks end at the checkpoints,
+    and the results are the same as when the trials are run one by one
+    @return the number of trials that were run (fewer if the run was stopped early)
+     */
+    private long runBlocks(PackedSettings values, long trials) {
+        if (values != null && values.size() == 0) {
+            values = null;
+        }
+        boolean randomAngles = settings.getAngleGenerator() == Settings.LAMBDAGENERATOR.RANDOMANGLES;
+        TrialBlock block = new TrialBlock();
+        long t = position;
+        while (t < trials) {
+            long end = Math.min(trials, t + TrialBlock.SIZE);
+            if (checkpointEvery > 0) {
+                end = Math.min(end, (t / checkpointEvery + 1) * checkpointEvery);
+            }
+            end = Math.min(end, stopCheck);
+            end = Math.min(end, seriesNext);
+            boolean timed = metrics != null && (blocks++ & (SAMPLEBLOCKS - 1)) == 0;
+            long t0 = timed ? System.nanoTime() : 0;
+            block.draw(rand, entangler, values, randomAngles, t, (int) (end - t));
+            long t1 = timed ? System.nanoTime() : 0;
+            block.measure(model, settings.getA(), settings.getB());
+            long t2 = timed ? System.nanoTime() : 0;
+            block.addTo(counts);
+            long t3 = timed ? System.nanoTime() : 0;
+            if (log != null) {
+                logBlock(block, t);
+            }
+            if (timed) {
+                metrics.sample(t1 - t0, t2 - t1, t3 - t2, System.nanoTime() - t3, SAMPLEBLOCKS);
+            }
+            if (metrics != null && end / METRICSEVERY > t / METRICSEVERY) {
+                metrics.publish(counts, getLogBytes());
             }
+            if (end / 500000 > t / 500000) {
+                p("Trial " + (end / 500000 * 500000) + " of " + trials);
+            }
+            t = end;
+            if (checkpointEvery > 0 && t % checkpointEvery == 0) {
+                saveCheckpoint(t);
+            }
+            if (t == seriesNext) {
+                recordSeries();
+            }
+            if (t == stopCheck && isSettled(t)) {
+                return t;
+            }
+        }
+        return trials;
+    }
+
+    /* Start the series of values for a run (a run that is resumed keeps the points it has)
+    @param from the first trial of the run that is still to come
+    @param trials the trials of the run
+     */
+    private void startSeries(long from, long trials) {
+        if (series == null || from == 0) {
+            series = new ValueSeries(Inequality.all(inequality), seriesSize);
+        }
+        seriesStep = seriesEvery > 0 ? seriesEvery : Math.max(1, trials / SERIESSIZE);
+        seriesNext = (from / seriesStep + 1) * seriesStep;
+    }
+
+    private void recordSeries() {
+        series.record(counts);
+        seriesNext += seriesStep;
+    }
+
+    /* Add the final values, unless there is a point for them already */
+    private void finishSeries() {
+        if (series.getLastTrials() != counts.getTotalTrials()) {
+            series.record(counts);
         }
+        seriesNext = Long.MAX_VALUE;
+    }
+
+    /*
+    Record the values of all inequalities during each run, and show them in the summary
+    @param every the number of trials between two points (0 for 64 points per run)
+    @param size the number of points that are kept (the oldest are dropped)
+     */
+    public void setSeries(long every, int size) {
+        this.seriesEvery = Math.max(0, every);
+        this.seriesSize = Math.max(1, size);
+        series = null;
+    }
+
+    /*
+    Keep the counts per window of each new run, and show them in the summary
+    @param windows the number of windows of a run (0 for none)
+     */
+    public void setWindows(int windows) {
+        this.windows = Math.max(0, windows);
+    }
 
+    /* @param profile how the efficiency of the entangler changes during each run */
+    public void setEfficiencyProfile(EfficiencyProfile profile) {
+        entangler.setProfile(profile);
+    }
+
+    public EfficiencyProfile getEfficiencyProfile() {
+        return entangler.getProfile();
+    }
+
+    /* @return the values of the inequalities during the last run (null before the first run) */
+    public ValueSeries getSeries() {
+        return series;
+    }
+
+    /* @return the bytes written to the log in this run (0 if there is no log) */
+    private long getLogBytes() {
+        return log == null ? 0 : log.getBytes();
+    }
+
+    /*
+    Publish the metrics of this engine (trials per second, detection rate, time per phase,
+    log bytes and the value of the inequality) as a JMX MBean, so that a run can be watched
+    with jconsole. The cost per trial is negligible
+    @return the metrics (or null if they could not be registered)
+     */
+    public EngineMetrics enableMetrics() {
+        if (metrics == null) {
+            EngineMetrics m = new EngineMetrics(inequality);
+            try {
+                m.register();
+                metrics = m;
+            } catch (JMException e) {
+                p("Could not register the metrics because " + e.getMessage());
+            }
+        }
+        return metrics;
+    }
+
+    /* Remove the metrics from the MBean server (such as when the engine is not used any more) */
+    public void disableMetrics() {
+        if (metrics != null) {
+            try {
+                metrics.unregister();
+            } catch (JMException e) {
+                p("Could not unregister the metrics because " + e.getMessage());
+            }
+            metrics = null;
+        }
+    }
+
+    /* Check whether the result is settled: the confidence interval value +- z * standard error
+    is completely above or below the classical limit of the inequality.
+    If not, the next check is after twice as many trials
+    @param next the number of trials of the run so far
+    @return true if the run can stop
+     */
+    private boolean isSettled(long next) {
+        stopCheck = next * STOPGROWTH;
+        inequality.setCounts(counts);
+        double value = inequality.compute();
+        double error = inequality.getStandardError();
+        double limit = inequality.getLimit();
+        if (Double.isNaN(error)) {
+            return false;
+        }
+        return value - stopZ * error > limit || value + stopZ * error <= limit;
+    }
+
+    /* @return the first trial of the sequence stopMin, 2 * stopMin, 4 * stopMin... after the given trial */
+    private long firstStopCheck(long trial) {
+        long check = Math.max(1, stopMin);
+        while (check <= trial) {
+            check *= STOPGROWTH;
+        }
+        return check;
+    }
+
+    /*
+    Stop a run (see run) early when the result is clear: at stopMin trials, and then
+    whenever the number of trials has doubled, the value of the inequality is compared
+    with its classical limit. The run stops when value - z * error is above the limit
+    (broken) or value + z * error is not (classical), error being the standard error.
+    Note that the efficiency of the entangler and the skewed random generator change
+    at fixed fractions of the planned trials, so a run that stopped early did not see
+    all these parts. Because the result is checked many times, z should be large (such as 3)
+    @param z the number of standard errors, 0 to never stop early
+    @param minTrials the number of trials before the first check
+     */
+    public void setEarlyStop(double z, long minTrials) {
+        this.stopZ = z;
+        this.stopMin = minTrials;
+    }
+
+    /* @return the number of trials of the last run (fewer than planned if it stopped early) */
+    public long getTrialsUsed() {
+        return runTrials;
+    }
+
+    /* Write the trials of a block to the log
+    @param start the index of the first trial of the block */
+    private void logBlock(TrialBlock block, long start) {
+        double[] A = settings.getA();
+        double[] B = settings.getB();
+        try {
+            for (int i = 0; i < block.size; i++) {
+                log.record(start + i, block.whichA[i], block.whichB[i], A[block.whichA[i]], B[block.whichB[i]],
+                        block.spinA[i], block.spinB[i], block.lambdas[i]);
+            }
+        } catch (IOException e) {
+            p("Could not write the log file because " + e.getMessage());
+            dropLog();
+        }
+    }
+
+    /* Write a checkpoint during a run
+    @param next the next trial of the run
+     */
+    private void saveCheckpoint(long next) {
+        position = next;
+        logSize = 0;
+        if (log != null) {
+            try {
+                log.flush();
+                logSize = log.size();
+            } catch (IOException e) {
+                p("Could not write the log file because " + e.getMessage());
+            }
+        }
+        try {
+            Checkpoint.save(this, checkpointFile);
+        } catch (IOException e) {
+            p("Could not write the checkpoint " + checkpointFile + " because " + e.getMessage());
+        }
+    }
+
+    /* Write a checkpoint every so many trials during a run, so that a long run can be continued
+    @param file the name of the checkpoint file
+    @param every the number of trials between checkpoints (0 for no checkpoints)
+     */
+    public void setCheckpoint(String file, long every) {
+        this.checkpointFile = file;
+        this.checkpointEvery = every;
+    }
+
+    /* Stop writing the log after an error. The log is still closed, so that its writer thread
+    and shutdown hook go away (closing it fails again for the same reason, that is ignored) */
+    private void dropLog() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            // already reported
+        }
+        log = null;
+    }
+
+    /* Open the log file for this run, if we write a log */
+    private void openLog(boolean append) {
+        log = null;
+        if (writeLog) {
+            if (append && settings.getLogPolicy() == Settings.LOGPOLICY.RESERVOIR) {
+                // the sample of the earlier trials is gone, a second sample would not be uniform
+                throw new IllegalStateException("A reservoir sample of the log cannot be continued or resumed");
+            }
+            try {
+                log = TrialLog.open(settings.getLogFormat(), settings, append);
+            } catch (IOException e) {
+                p("Could not open the log file because " + e.getMessage());
+            }
+        }
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                p("Could not write the log file because " + e.getMessage());
+            }
+            log = null;
+        }
+    }
+
+    /* Run given number of trials on several threads.
+    The trials are split into chunks of a fixed size, and each chunk gets its own counts
+    and its own random generators that are derived from the seed and the chunk number.
+    The counts of the chunks are merged in the order of the chunks, so a given seed
+    always gives the same result, no matter how many threads were used.
+    Note: the log file is not written for each trial in this mode (just the summary)
+    @param trials number of trials
+    @values user supplied (random) settings for angles A and B (which can be null)
+    @continueExperiment whether this is a new experiment or whether we continue to collect data from a previous run
+    @param threads the number of worker threads to use
+     */
+    public double runParallel(long trials, PackedSettings values, boolean continueExperiment, int threads) {
+        boolean append = counts != null && continueExperiment;
+        if (!append) {
+            counts = new Counts();
+        }
+        if (values != null && values.size() > 0) {
+            trials = values.size();
+        } else {
+            values = null;
+        }
+        prepareWindows(append, trials);
+        // a continued run must not repeat the trials of the earlier runs, so its chunks split
+        // a generator that depends on the trials so far (the chunks use the streams from 0 on)
+        Rand runRand = rand;
+        if (counts.getTotalTrials() > 0) {
+            runRand = rand.split(Long.MIN_VALUE + counts.getTotalTrials());
+        }
+        long chunks = (trials + CHUNK - 1) / CHUNK;
+        threads = Math.max(1, threads);
+        if (metrics != null) {
+            metrics.start(counts, trials);
+        }
+        startSeries(0, trials);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // only a few chunks are submitted ahead, so the memory does not grow with the trials
+            Deque<Future<Counts>> results = new ArrayDeque<>();
+            long next = 0;
+            long done = 0;
+            while (next < chunks || !results.isEmpty()) {
+                while (next < chunks && results.size() < 4 * threads) {
+                    results.add(pool.submit(createWorker(settings.copy(), runRand, values, next, trials, counts.getWindows())));
+                    next++;
+                }
+                Counts c = results.poll().get();
+                counts.merge(c);
+                if (metrics != null) {
+                    metrics.publish(counts, 0);
+                }
+                done += c.getTotalTrials();
+                // the chunks are merged in order, so the points are at the end of the chunks
+                if (done >= seriesNext) {
+                    recordSeries();
+                    seriesNext = (done / seriesStep + 1) * seriesStep;
+                }
+                if (done / 500000 != (done - c.getTotalTrials()) / 500000) {
+                    p("Trial " + done + " of " + trials);
+                }
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            throw new IllegalStateException("Parallel run failed: " + ex.getMessage(), ex);
+        } finally {
+            pool.shutdownNow();
+            if (metrics != null) {
+                metrics.stop(counts, 0);
+            }
+        }
+
+        runTrials = trials;
+        position = trials;
+        finishSeries();
+        inequality.setCounts(counts);
+        if (writeLog && writeSummary) {
+            String summary = getSummary();
+            writeFile(summary, "summary.csv", false);
+            p(summary);
+        }
+        return inequality.compute();
+    }
+
+    /* Create the worker for one chunk of a run, with its own random generators and its own model
+    @param s the settings for the worker (a copy, so the worker is not affected by later changes)
+    @param rand the random generator of the run, the worker splits its own from it
+    @param values user supplied settings for A and B (can be null)
+    @param chunk the index of the chunk
+    @param trials the total number of trials of the run
+    @param windows the number of windows of the run to keep the counts for (0 for none)
+     */
+    private TrialWorker createWorker(Settings s, Rand rand, PackedSettings values, long chunk, long trials, int windows) {
+        TrialWorker worker = createWorker(s, model, rand, entangler.getProfile(), values, chunk, trials);
+        worker.setWindows(windows);
+        return worker;
+    }
+
+    /* Create the worker for one chunk of a run. The random generators of the worker only
+    depend on the seed of rand and on the chunk
+    @param s the settings for the worker
+    @param model the model, the worker gets a copy
+    @param rand the random generator of the run (fair or skewed)
+    @param profile how the efficiency of the entangler changes during the run
+    @param values user supplied settings for A and B (can be null)
+    @param chunk the index of the chunk
+    @param trials the total number of trials of the run
+     */
+    static TrialWorker createWorker(Settings s, AbstractLHVModel model, Rand rand, EfficiencyProfile profile,
+            PackedSettings values, long chunk, long trials) {
+        long start = chunk * CHUNK;
+        long end = Math.min(start + CHUNK, trials);
+        Rand choices = rand.split(2L * chunk);
+        Rand physics = new Rand(rand.getGenerator());
+        physics.setSeed(Rand.mixSeed(rand.getSeed(), 2L * chunk + 1));
+        Entangler entangler = new Entangler(physics);
+        entangler.setProfile(profile);
+        return new TrialWorker(s, model.copy(s, physics), choices,
+                entangler, values, start, end, trials);
+    }
+
+    /* Run the given number of trials for the given settings in the calling thread,
+    without touching the state of this engine (so it can be called from many threads at once).
+    The result is the same as the result of runParallel with these settings.
+    @param s the settings (angles etc) to use
+    @param trials the number of trials
+    @return the counts of the run
+     */
+    public Counts evaluate(Settings s, long trials) {
+        Counts result = new Counts();
+        long chunks = (trials + CHUNK - 1) / CHUNK;
+        for (long chunk = 0; chunk < chunks; chunk++) {
+            result.merge(createWorker(s, rand, null, chunk, trials, 0).call());
+        }
+        return result;
+    }
+
+    /* The expected counts of a run with the given settings, computed exactly without running
+    it (see Expectation). Like evaluate, this does not touch the state of this engine.
+    @param s the settings (angles etc) to use
+    @param trials the number of trials
+    @return the expected counts rounded to whole trials, or null if the model cannot compute them
+     */
+    public Counts expected(Settings s, long trials) {
+        Expectation e = Expectation.compute(model, s, rand, entangler, trials);
+        return e == null ? null : e.toCounts();
+    }
+
+    /* Compute the expected counts of a run instead of running it, and write the summary
+    like a run does (for models that can compute them, see Expectation)
+    @param trials the number of trials
+    @return the expected value of the inequality, or NaN if the model cannot compute it
+     */
+    public double runExpected(long trials) {
+        long start = System.nanoTime();
+        Expectation e = Expectation.compute(model, settings, rand, entangler, trials);
+        long time = System.nanoTime() - start;
+        if (e == null) {
+            p("The expected counts can only be computed for a model that knows its partitions (such as Wang) and random angles");
+            return Double.NaN;
+        }
+        counts = e.toCounts();
+        series = null;
+        runTrials = trials;
+        position = trials;
+        p("Computed the expected counts of " + trials + " trials in " + time / 1000 + " microseconds");
         inequality.setCounts(counts);
         if (writeLog) {
             writeResults();
@@ -161,15 +800,25 @@ public class Engine implements Serializable {
         return inequality.compute();
     }
 
+    /* Decide whether the next trial is timed for the metrics (one in SAMPLEEVERY), and if so
+    start the clock before its settings and hidden variable are drawn */
+    private void startPair() {
+        timedPair = metrics != null && (++pairs & (SAMPLEEVERY - 1)) == 0;
+        if (timedPair) {
+            pairStart = System.nanoTime();
+        }
+    }
+
     /* Measure the spins for one pair of photons.
     This can be done in a symmetrical way (use the same function for both detectors),
     or in an asymmetrical way (see comment in the code below)
+    @param trial the index of the trial (for the log)
     @param photonAngle hidden variable
     @param whichAngleB the angleA (0 or 1) for a1 or a2 (these angles are in degrees)
     @param whichB the angleB (0 or 1) for b1 or b2 (these angles are in degrees)
     @param write just a flag whether to write a log or not
      */
-    private void runOnePair(double photonAngleDegree, int whichAngleA, int whichAngleB) {
+    private void runOnePair(long trial, double photonAngleDegree, int whichAngleA, int whichAngleB) {
 
         double angleA = settings.getA()[whichAngleA];
         double angleB = settings.getB()[whichAngleB];
@@ -182,29 +831,31 @@ public class Engine implements Serializable {
         computeSpinB both times (please take a look at the code), which is symmetrical.
         The inequality breaking is not that good in this case, but still good enough :-)
          */
+        // the random draws are the settings, the hidden variable (see startPair) and the entangler
+        boolean timed = timedPair;
         boolean gotEntangledPair = entangler.photonsCreatedAndEntangled();
+        long t0 = timed ? System.nanoTime() : 0;
         int spinA = -1;
         int spinB = -1;
         if (gotEntangledPair) {
             spinA = model.computeSpinB(angleA, photonAngleDegree);
             spinB = model.computeSpinB(angleB, photonAngleDegree);
         }
-        
-
-        /* this is just for logging */
-        int Adetected = spinA >= 0 ? 1 : 0;
-        int Bdetected = spinB >= 0 ? 1 : 0;
-
-        if (writeLog) {
-            log += whichAngleA + ", " + whichAngleB + ", " + angleA + ", " + angleB + ", " + spinA + ", " + spinB
-                    + ", " + Adetected + ", " + Bdetected + ", " + f.format(photonAngleDegree) + "\n";
+        long t1 = timed ? System.nanoTime() : 0;
+
+        if (log != null) {
+            try {
+                log.record(trial, whichAngleA, whichAngleB, angleA, angleB, spinA, spinB, photonAngleDegree);
+            } catch (IOException e) {
+                p("Could not write the log file because " + e.getMessage());
+                dropLog();
+            }
         }
+        long t2 = timed ? System.nanoTime() : 0;
         /* Add the counts */
         counts.addResultOfOnePair(whichAngleA, whichAngleB, spinA, spinB);
-
-        if (writeLog && log.length() > 10000) {
-            writeFile(log, "log.csv", true);
-            log = "";
+        if (timed) {
+            metrics.sample(t0 - pairStart, t1 - t0, System.nanoTime() - t2, t2 - t1, SAMPLEEVERY);
         }
     }
 
@@ -241,7 +892,7 @@ public class Engine implements Serializable {
                         }
                         // resset the counts
                         counts = null;
-                        createRand();
+                        resetRand();
                         double j = run(1000, null, false);
                         count++;
                         boolean passed = in.isBroken(j);
@@ -254,7 +905,7 @@ public class Engine implements Serializable {
                             } else if (j > maxj * 0.8) {
                                 in.setCounts(counts);
                                 in.computeString();
-                                createRand();
+                                resetRand();
                                 double res = this.run(100000, null, false);
                                 if (in.isBroken(res)) {
                                     p(getSummary());
@@ -274,7 +925,7 @@ public class Engine implements Serializable {
                                 in.computeString();
 
                                 counts = null;
-                                createRand();
+                                resetRand();
                                 double res = this.run(100000, null, false);
                                 if (in.isBroken(res)) {
                                     p("\n% detected, " + f.format(counts.getPercentBothDetected()) + "%");
@@ -292,12 +943,87 @@ public class Engine implements Serializable {
 
     }
 
+    /* The same search as findAngles, but the grid is split into fork-join tasks that run on
+    several threads. Each configuration is evaluated with its own state (see evaluate), the best
+    configuration so far is shared without locks, and the confirmation runs with 100000
+    trials run asynchronously while the search continues.
+    @param in the inequality to maximize
+    @param threads the number of threads to use
+     */
+    public void findAnglesParallel(Inequality in, int threads) {
+        AngleSearch search = new AngleSearch(this, in, threads);
+        AngleSearch.Best best = search.search();
+        if (best != null) {
+            p(best.getSettings().toString());
+            p("j=" + best.getJ());
+        }
+    }
+
+    /* Search the angles that maximize the inequality with a coarse scan and a local refinement
+    (see AngleOptimizer). This needs far fewer evaluations than findAngles, and also finds
+    angles between the integer degrees. The best angles are set in the settings of this engine.
+    @param in the inequality to maximize
+     */
+    public void optimizeAngles(Inequality in) {
+        AngleSearch.Best best = new AngleOptimizer(this, in).optimize();
+        settings.setA(best.getSettings().getA().clone());
+        settings.setB(best.getSettings().getB().clone());
+        Counts c = evaluate(settings, AngleSearch.CONFIRMTRIALS);
+        Inequality ineq = in.copy();
+        ineq.setCounts(c);
+        p(getSummary(settings, c, ineq));
+    }
+
+    /* @return a table with the detection rate, the settings and the value of each inequality
+    in each window of the run (empty if the counts have no windows) */
+    String getWindowSummary(Counts counts) {
+        int n = counts.getWindows();
+        if (n == 0) {
+            return "";
+        }
+        List<Inequality> ins = new ArrayList<>();
+        for (Inequality in : Inequality.all(inequality)) {
+            ins.add(in.copy());
+        }
+        String summary = "\n\nWindows, the counts in each part of the run (" + n + " windows of " + counts.getWindowSize() + " trials)";
+        summary += "\nWindow, First trial, Trials, % detected, % A1, % B1";
+        for (Inequality in : ins) {
+            summary += ", " + in.getClass().getSimpleName();
+        }
+        for (int w = 0; w < n; w++) {
+            Counts c = counts.getWindow(w);
+            long total = c.getTotalTrials();
+            summary += "\n" + (w + 1) + ", " + w * counts.getWindowSize() + ", " + total;
+            if (total == 0) {
+                // such as the windows after an early stop: no percentages and values
+                summary += ", , , ";
+                for (int i = 1; i < ins.size(); i++) {
+                    summary += ", ";
+                }
+                continue;
+            }
+            summary += ", " + f.format(c.getPercentBothDetected())
+                    + ", " + f.format(100.0 * c.getSettingA(0) / total)
+                    + ", " + f.format(100.0 * c.getSettingB(0) / total);
+            for (Inequality in : ins) {
+                in.setCounts(c);
+                summary += ", " + in.compute();
+            }
+        }
+        return summary;
+    }
+
     public String getCountSummary() {
+        return getCountSummary(counts);
+    }
+
+    /* @return a summary of the given counts */
+    static String getCountSummary(Counts counts) {
         double tot = counts.getTotalTrials();
-        int sa1 = counts.getSettingA(0);
-        int sa2 = counts.getSettingA(1);
-        int sb1 = counts.getSettingB(0);
-        int sb2 = counts.getSettingB(1);
+        long sa1 = counts.getSettingA(0);
+        long sa2 = counts.getSettingA(1);
+        long sb1 = counts.getSettingB(0);
+        long sb2 = counts.getSettingB(1);
 
         double a = counts.getSingleA();
         double b = counts.getSingleB();
@@ -327,34 +1053,39 @@ public class Engine implements Serializable {
     }
 
     private void writeResults() {
-        writeFile(log, "log.csv", true);
-
         String summary = getSummary();
         writeFile(summary, "summary.csv", false);
         p(summary);
     }
 
     private String getSummary() {
+        String summary = getSummary(settings, counts, inequality);
+        if (series != null && series.size() > 0) {
+            summary += series;
+        }
+        summary += getWindowSummary(counts);
+        return summary;
+    }
+
+    /* @return a summary of the given settings, counts and inequality */
+    String getSummary(Settings settings, Counts counts, Inequality inequality) {
         String summary = settings.toString();
         summary += "\nTrials, " + counts.getTotalTrials() + ", the number of pairs that we have produced in total";
         summary += "\nModel, " + model.getClass().getName() + ", the name of the class that computes the measurement for a photon, an angle at a detector and a hidden variable";
         summary += "\n% detected, " + f.format(counts.getPercentBothDetected()) + "%";
         summary += "\nTotal count , " + counts.getTotalTrials() + "";
 
-        List<Inequality> ins = new ArrayList<>();
-        ins.add(inequality);
-        //  ins.add(new Guistina2015());
-        // ins.add(new CH());
-        for (Inequality in : ins) {
+        // all inequalities from the same counts, the one of the run first
+        for (Inequality in : Inequality.all(inequality)) {
             in.setCounts(counts);
             summary += "\n\nInequality, " + in.getClass().getName() + ", the name of the class that contains the inequality formula";
             summary += in.computeString();
         }
-        summary += getCountSummary();
+        summary += getCountSummary(counts);
         return summary;
     }
 
-    private String getSummary(Inequality in) {
+    private String getSummary(Inequality in, Counts counts) {
         in.setCounts(counts);
         String summary = "\n\nInequality, " + in.getClass().getName() + ", the name of the class that contains the inequality formula";
         summary += in.computeString();
@@ -392,7 +1123,7 @@ public class Engine implements Serializable {
         long count = 0;
         for (double bias = 0.62; bias < 0.7; bias += 0.001) {
 
-            rand = SkewedRand.getRand(true, bias);
+            setRandContext(RandContext.create(settings, bias));
             double j = run(10000, null, false);
             count++;
             boolean passed = in.isBroken(j);
@@ -409,10 +1140,10 @@ public class Engine implements Serializable {
             if (j > maxj * 0.8) {
                 in.setCounts(counts);
                 in.computeString();
-                rand = SkewedRand.getRand(true, bias);
+                setRandContext(RandContext.create(settings, bias));
                 double res = this.run(100000, null, false);
                 if (in.isBroken(res)) {
-                    p(getSummary(in));
+                    p(getSummary(in, counts));
                     p(getCountSummary());
                 }
 
@@ -424,36 +1155,32 @@ public class Engine implements Serializable {
     private void testRand(Inequality in, double bias) {
         writeLog = false;
 
-        int positive = 0;
         int tot = 100;
 
-        rand = SkewedRand.getRand(true, bias);
-        rand.setSeed(settings.getSeed());
-        for (int i = 0; i < tot; i++) {
-            counts = null;
-
-            double j = run(10000, null, false);
-            boolean passed = in.isBroken(j);
-
-            if (passed) {
-                positive++;
-            }
-        }
+        // the replicates run in parallel, see Ensemble
+        Ensemble ensemble = new Ensemble(model, in, settings, bias);
+        ensemble.setProfile(entangler.getProfile());
+        ensemble.setTrials(10000);
+        ensemble.run(tot);
+        int positive = (int) Math.round(ensemble.getViolationRate() * tot);
 
         double per = positive * 100.0 / (double) tot;
         p("\n------------- Bias " + bias + ", positive " + per + "% (" + positive + " out of " + tot + ")");
         if (per > 50) {
-            p(getCountSummary());
-            p(getSummary(in));
+            // the counts of the engine are not used by the replicates, show the last replicate
+            p(ensemble.getSummary());
+            p(getCountSummary(ensemble.getLastCounts()));
+            p(getSummary(in, ensemble.getLastCounts()));
+            // one context for all runs, so that each run continues with new random numbers
+            setRandContext(RandContext.create(settings, bias));
             for (int t = 0; t < 5; t++) {
                 counts = null;
-                rand = SkewedRand.getRand(true, bias);
 
                 double j = run(100000, null, false);
                 p("j:" + j);
                 if (j > 0) {
                     p(getCountSummary());
-                    p(getSummary(in));
+                    p(getSummary(in, counts));
                 }
             }
         }
@@ -464,7 +1191,7 @@ public class Engine implements Serializable {
     public static void main(String[] args) {
 
         long seed = 1234;
-        int trials = 1000000;
+        long trials = 1000000;
 
         Settings settings = new Settings();
         settings.setSeed(seed);
@@ -473,8 +1200,14 @@ public class Engine implements Serializable {
         Engine engine = new Engine(new WangLHVModel(settings), in, false);
 
         // engine.findAngles(in);
+        // engine.findAnglesParallel(in, Runtime.getRuntime().availableProcessors());
+        // engine.optimizeAngles(in);
         // engine.run(trials, null, false);
         //engine.findRnd(in);
+        // all biases and seeds at once (see Sweep):
+        // Sweep sweep = new Sweep(engine.model, in, settings, false);
+        // sweep.parse("bias=0.4:0.5:0.01,seed=1:100,trials=10000");
+        // sweep.run();
         for (double bias = 0.40; bias < 0.5; bias += 0.1) {
             engine.testRand(in, bias);
         }
@@ -0,0 +1,217 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of an engine as a JMX MBean. The engine thread updates them every
+ * Engine.METRICSEVERY trials (publish), so the cost per trial is just a counter.
+ * The times of the phases of a trial (random numbers, model, counts and log)
+ * are only measured for a sample of the trials, and multiplied by the sample
+ * rate. The JMX threads only read the published values, and compute the value
+ * of the inequality from a copy of the counts.
+ *
+ * @author croth
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+    private static final AtomicInteger ENGINES = new AtomicInteger();
+
+    private final Inequality inequality;
+    private ObjectName name;
+
+    /* the sampled times in ns, only used by the engine thread */
+    private long randomNanos;
+    private long modelNanos;
+    private long countingNanos;
+    private long loggingNanos;
+
+    /* the published values */
+    private volatile Counts counts;
+    private volatile long plannedTrials;
+    private volatile boolean running;
+    private volatile double trialsPerSecond;
+    private volatile double averageTrialsPerSecond;
+    private volatile double randomMillis;
+    private volatile double modelMillis;
+    private volatile double countingMillis;
+    private volatile double loggingMillis;
+    private volatile long logBytes;
+
+    /* when the run started and the last update, only used by the engine thread */
+    private long startTime;
+    private long startTrials;
+    private long lastTime;
+    private long lastTrials;
+
+    /* @param inequality the inequality of the engine (a copy is used) */
+    public EngineMetrics(Inequality inequality) {
+        this.inequality = inequality.copy();
+    }
+
+    /* Register this MBean with the platform MBean server, as simulation:type=Engine,id=n */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        name = new ObjectName("simulation:type=Engine,id=" + ENGINES.incrementAndGet());
+        server.registerMBean(this, name);
+    }
+
+    public void unregister() throws JMException {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+    /* A run starts
+    @param counts the counts so far
+    @param planned the number of trials of the run
+     */
+    void start(Counts counts, long planned) {
+        startTime = System.nanoTime();
+        lastTime = startTime;
+        startTrials = counts.getTotalTrials();
+        lastTrials = startTrials;
+        randomNanos = 0;
+        modelNanos = 0;
+        countingNanos = 0;
+        loggingNanos = 0;
+        plannedTrials = planned;
+        running = true;
+        publish(counts, 0);
+    }
+
+    /* Add the times of one sampled trial (or block of trials)
+    @param weight the number of trials (or blocks) the sample stands for
+     */
+    void sample(long random, long model, long counting, long logging, long weight) {
+        randomNanos += random * weight;
+        modelNanos += model * weight;
+        countingNanos += counting * weight;
+        loggingNanos += logging * weight;
+    }
+
+    /* Update the values that are seen by JMX
+    @param counts the counts so far (they are copied)
+    @param bytes the bytes written to the log so far
+     */
+    void publish(Counts counts, long bytes) {
+        long now = System.nanoTime();
+        long trials = counts.getTotalTrials();
+        if (now > lastTime) {
+            trialsPerSecond = (trials - lastTrials) * 1e9 / (now - lastTime);
+        }
+        if (now > startTime) {
+            averageTrialsPerSecond = (trials - startTrials) * 1e9 / (now - startTime);
+        }
+        lastTime = now;
+        lastTrials = trials;
+        randomMillis = randomNanos / 1e6;
+        modelMillis = modelNanos / 1e6;
+        countingMillis = countingNanos / 1e6;
+        loggingMillis = loggingNanos / 1e6;
+        logBytes = bytes;
+        this.counts = counts.snapshot();
+    }
+
+    /* The run is done */
+    void stop(Counts counts, long bytes) {
+        publish(counts, bytes);
+        running = false;
+    }
+
+    @Override
+    public long getTotalTrials() {
+        Counts c = counts;
+        return c == null ? 0 : c.getTotalTrials();
+    }
+
+    @Override
+    public long getPlannedTrials() {
+        return plannedTrials;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public double getTrialsPerSecond() {
+        return trialsPerSecond;
+    }
+
+    @Override
+    public double getAverageTrialsPerSecond() {
+        return averageTrialsPerSecond;
+    }
+
+    @Override
+    public double getDetectionRate() {
+        Counts c = counts;
+        return c == null ? 0 : c.getPercentBothDetected();
+    }
+
+    @Override
+    public double getRandomMillis() {
+        return randomMillis;
+    }
+
+    @Override
+    public double getModelMillis() {
+        return modelMillis;
+    }
+
+    @Override
+    public double getCountingMillis() {
+        return countingMillis;
+    }
+
+    @Override
+    public double getLoggingMillis() {
+        return loggingMillis;
+    }
+
+    @Override
+    public long getLogBytes() {
+        return logBytes;
+    }
+
+    @Override
+    public String getInequality() {
+        return inequality.getClass().getSimpleName();
+    }
+
+    /* the inequality is only used by the JMX threads, one at a time */
+    @Override
+    public synchronized double getInequalityValue() {
+        Counts c = counts;
+        if (c == null) {
+            return Double.NaN;
+        }
+        inequality.setCounts(c);
+        return inequality.compute();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+/**
+ * The values of a running engine that can be watched with jconsole or any
+ * other JMX client (see EngineMetrics).
+ *
+ * @author croth
+ */
+public interface EngineMetricsMBean {
+
+    /* @return the number of trials counted so far (including earlier runs that were continued) */
+    long getTotalTrials();
+
+    /* @return the number of trials of the current run */
+    long getPlannedTrials();
+
+    /* @return true while a run is going on */
+    boolean isRunning();
+
+    /* @return the trials per second since the last update */
+    double getTrialsPerSecond();
+
+    /* @return the trials per second since the start of the run */
+    double getAverageTrialsPerSecond();
+
+    /* @return the percent of trials where both photons were detected */
+    double getDetectionRate();
+
+    /* @return the estimated time spent drawing the random numbers: the settings, the hidden variable
+    and whether the photons are entangled (the entangler), in ms */
+    double getRandomMillis();
+
+    /* @return the estimated time spent computing the spins in the model, in ms */
+    double getModelMillis();
+
+    /* @return the estimated time spent adding the results to the counts, in ms */
+    double getCountingMillis();
+
+    /* @return the estimated time spent writing the log, in ms */
+    double getLoggingMillis();
+
+    /* @return the number of bytes written to the log in this run */
+    long getLogBytes();
+
+    /* @return the name of the inequality */
+    String getInequality();
+
+    /* @return the value of the inequality for the counts so far */
+    double getInequalityValue();
+}
@@ -0,0 +1,259 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs the same experiment many times with different seeds (replicates) on all
+ * processors, and summarizes the values of the inequality: mean, standard
+ * deviation, quantiles and how often the inequality was broken. The seed of a
+ * replicate only depends on the seed of the settings and the number of the
+ * replicate, and each replicate gives the same result as Engine.runParallel
+ * with that seed. The values are added to the accumulator in the order of the
+ * replicates, so the summary does not depend on the threads either.
+ *
+ * @author croth
+ */
+public class Ensemble {
+
+    /* the file with one line per replicate and the summary */
+    static final String FILE = "ensemble.csv";
+
+    static final String HEADER = "Replicate, Seed, Value, Broken, % detected, ms";
+
+    private final AbstractLHVModel model;
+    private final Inequality in;
+    private final Settings settings;
+
+    /* the bias of the skewed random generator, NaN for the fair one */
+    private final double bias;
+
+    private EfficiencyProfile profile = EfficiencyProfile.STANDARD;
+    private long trials;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /* the results of the last run, in the order of the replicates */
+    private long[] seeds;
+    private double[] values;
+    /* the values sorted once per run, for the quantiles */
+    private double[] sorted;
+    private long[] millis;
+    private Accumulator statistics;
+    private Accumulator times;
+    private int violations;
+    private long totalMillis;
+    private Counts lastCounts;
+
+    /*
+    @param model the model, each replicate uses a copy
+    @param in the inequality to compute, each replicate uses a copy
+    @param settings the settings (angles, trials, seed etc). The seeds of the replicates are derived from the seed
+    @param bias the bias of the skewed random generator, or NaN for the fair random generator
+     */
+    public Ensemble(AbstractLHVModel model, Inequality in, Settings settings, double bias) {
+        this.model = model;
+        this.in = in;
+        this.settings = settings;
+        this.bias = bias;
+        this.trials = settings.getTrials();
+    }
+
+    /* @return the seed of the given replicate */
+    public long getSeed(int replicate) {
+        return Rand.mixSeed(settings.getSeed(), replicate);
+    }
+
+    /* Run the replicates and write the results (one line per replicate and the summary) into ensemble.csv
+    @param replicates the number of replicates
+    @return the statistics of the values of the inequality
+     */
+    public Accumulator run(int replicates) {
+        if (replicates < 1) {
+            throw new IllegalArgumentException("At least one replicate is needed, not " + replicates);
+        }
+        long start = System.currentTimeMillis();
+        seeds = new long[replicates];
+        values = new double[replicates];
+        sorted = null;
+        millis = new long[replicates];
+        statistics = new Accumulator();
+        times = new Accumulator();
+        violations = 0;
+        p("Running " + replicates + " replicates of " + trials + " trials with " + threads + " threads");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE))) {
+            List<ForkJoinTask<Counts>> tasks = new ArrayList<>();
+            for (int i = 0; i < replicates; i++) {
+                seeds[i] = getSeed(i);
+                tasks.add(pool.submit(new Replicate(i)));
+            }
+            writer.write(HEADER);
+            writer.newLine();
+            for (int i = 0; i < replicates; i++) {
+                Counts counts = tasks.get(i).join();
+                lastCounts = counts;
+                Inequality ineq = in.copy();
+                ineq.setCounts(counts);
+                boolean broken = ineq.isBroken(values[i]);
+                if (broken) {
+                    violations++;
+                }
+                statistics.add(values[i]);
+                times.add(millis[i]);
+                writer.write(i + ", " + seeds[i] + ", " + values[i] + ", " + broken + ", "
+                        + Engine.f.format(counts.getPercentBothDetected()) + ", " + millis[i]);
+                writer.newLine();
+            }
+            totalMillis = System.currentTimeMillis() - start;
+            sorted = values.clone();
+            Arrays.sort(sorted);
+            writer.newLine();
+            writer.write(getSummary());
+        } catch (IOException e) {
+            p("Could not write the file " + FILE + " because " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        return statistics;
+    }
+
+    /* Runs one replicate: the chunks are forked, and the counts are merged when all are done */
+    private class Replicate extends RecursiveTask<Counts> {
+
+        private final int replicate;
+
+        Replicate(int replicate) {
+            this.replicate = replicate;
+        }
+
+        @Override
+        protected Counts compute() {
+            long start = System.currentTimeMillis();
+            Settings s = settings.copy();
+            s.setSeed(seeds[replicate]);
+            s.setTrials(trials);
+            Rand rand = RandContext.create(s, bias).getChoices();
+
+            long chunks = (trials + Engine.CHUNK - 1) / Engine.CHUNK;
+            List<ForkJoinTask<Counts>> parts = new ArrayList<>();
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                parts.add(ForkJoinTask.adapt(Engine.createWorker(s.copy(), model, rand, profile, null, chunk, trials)));
+            }
+            Counts counts = new Counts();
+            for (ForkJoinTask<Counts> part : invokeAll(parts)) {
+                counts.merge(part.join());
+            }
+            Inequality ineq = in.copy();
+            ineq.setCounts(counts);
+            values[replicate] = ineq.compute();
+            millis[replicate] = System.currentTimeMillis() - start;
+            return counts;
+        }
+    }
+
+    /* @return the q quantile (0 to 1) of the values of the last run, interpolated between the two closest values */
+    public double getQuantile(double q) {
+        if (sorted == null || sorted.length == 0) {
+            return Double.NaN;
+        }
+        double pos = q * (sorted.length - 1);
+        int i = (int) Math.floor(pos);
+        if (i + 1 >= sorted.length) {
+            return sorted[sorted.length - 1];
+        }
+        return sorted[i] + (pos - i) * (sorted[i + 1] - sorted[i]);
+    }
+
+    /* @return the fraction of the replicates of the last run that broke the inequality */
+    public double getViolationRate() {
+        if (values == null || values.length == 0) {
+            return Double.NaN;
+        }
+        return (double) violations / values.length;
+    }
+
+    /* @return the summary of the last run */
+    public String getSummary() {
+        if (values == null) {
+            return "Replicates, 0, the replicates have not run yet\n";
+        }
+        String s = "Replicates, " + values.length;
+        s += "\nTrials, " + trials + ", per replicate";
+        s += "\nRandom generator, " + (Double.isNaN(bias) ? "fair" : "skewed with bias " + bias);
+        s += "\nInequality, " + in.getClass().getName();
+        s += "\nMean, " + statistics.getMean();
+        s += "\nStandard deviation, " + statistics.getStandardDeviation();
+        s += "\nStandard error, " + statistics.getStandardError();
+        s += "\nMin, " + statistics.getMin();
+        s += "\n5%, " + getQuantile(0.05);
+        s += "\n25%, " + getQuantile(0.25);
+        s += "\nMedian, " + getQuantile(0.5);
+        s += "\n75%, " + getQuantile(0.75);
+        s += "\n95%, " + getQuantile(0.95);
+        s += "\nMax, " + statistics.getMax();
+        s += "\nViolations, " + violations + ", " + Engine.f.format(getViolationRate() * 100) + "% of the replicates broke the inequality";
+        s += "\nms per replicate, " + Engine.f.format(times.getMean()) + ", min " + (long) times.getMin() + ", max " + (long) times.getMax();
+        s += "\nms in total, " + totalMillis + "\n";
+        return s;
+    }
+
+    /* @return the merged counts of the last replicate of the last run (null before the first run) */
+    public Counts getLastCounts() {
+        return lastCounts;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public long[] getMillis() {
+        return millis;
+    }
+
+    public void setTrials(long trials) {
+        this.trials = trials;
+    }
+
+    public void setFactor(double factor) {
+        this.profile = profile.withFactor(factor);
+    }
+
+    /* @param profile how the efficiency changes during each replicate */
+    public void setProfile(EfficiencyProfile profile) {
+        this.profile = profile;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    private static void p(String s) {
+        System.out.println("Ensemble: " + s);
+    }
+}
@@ -26,6 +26,11 @@ package simulation;
 import java.io.Serializable;
 
 /**
+ * Decides whether the photons of a trial are created and entangled. The
+ * efficiency changes during the run as given by an EfficiencyProfile. The
+ * trials where the segments of the profile start are computed once per run
+ * (in setTrials), so photonsCreatedAndEntangled just compares the counter with
+ * the end of the current segment.
  *
  * @author croth
  */
@@ -33,53 +38,114 @@ public class Entangler implements Serializable {
 
     private static final long serialversionUID = 1L;
 
-    private int trials;
-    private int counter;
+    private long trials;
+    private long counter;
 
-    double eff = 1.0;
     Rand rand;
 
-    double factor = 1.9;
+    /* the default efficiency factor */
+    public static final double FACTOR = 1.9;
 
+    private EfficiencyProfile profile = EfficiencyProfile.STANDARD;
+
+    /* the first trial after each segment (the last one never ends) and the efficiency of each segment */
+    private long[] ends;
+    private double[] thresholds;
+
+    /* the current segment, where it ends and its efficiency */
+    private int segment;
+    private long segmentEnd;
+    private double threshold;
+
+    /* An entangler with its own random generator */
     public Entangler() {
-        rand = Rand.getRand();
+        this(new Rand());
+    }
+
+    /* @param rand the random generator to use, such as a generator for just one worker thread */
+    public Entangler(Rand rand) {
+        this.rand = rand;
+        prepare();
+        setPosition(0);
     }
 
     public boolean photonsCreatedAndEntangled() {
-        counter++;
-        double per = counter * 100.0 / trials;
-        double r = rand.randDouble();
-
-        /*
-        0  - 25:  generate 12 equally. Generate fewer photons
-        25 - 50:  generate 2 more. Generate a bit more photons
-        50 - 75:  generate 1 more. Generate normal photons
-        75 - 100: generate 12 equally. Generate fewer photons
-         */
-        if (per < 28) {
-            return r < eff / factor / factor;
-        } else if (per < 52) {
-            return r < eff / factor;
-        } else if (per < 73) {
-            return r < eff;
-        } else {
-            return r < eff / factor;
+        while (counter >= segmentEnd) {
+            segment++;
+            segmentEnd = ends[segment];
+            threshold = thresholds[segment];
         }
+        counter++;
+        return rand.randDouble() < threshold;
+    }
 
+    /* Compute where the segments of the profile end for the trials of the run */
+    private void prepare() {
+        int n = profile.size();
+        ends = new long[n];
+        thresholds = new double[n];
+        for (int i = 0; i < n; i++) {
+            ends[i] = i + 1 < n ? profile.getStartTrial(i + 1, trials) : Long.MAX_VALUE;
+            thresholds[i] = profile.getEfficiency(i);
+        }
     }
 
     /**
      * @return the trials
      */
-    public int getTrials() {
+    public long getTrials() {
         return trials;
     }
 
     /**
      * @param trials the trials to set
      */
-    public void setTrials(int trials) {
+    public void setTrials(long trials) {
         this.trials = trials;
-        this.counter = 0;
+        prepare();
+        setPosition(0);
+    }
+
+    /**
+     * @param trial the index of the next trial (0 based), such as the start of a chunk of trials
+     */
+    public void setPosition(long trial) {
+        this.counter = trial;
+        segment = 0;
+        while (counter >= ends[segment]) {
+            segment++;
+        }
+        segmentEnd = ends[segment];
+        threshold = thresholds[segment];
+    }
+
+    /**
+     * @return the efficiency factor
+     */
+    public double getFactor() {
+        return profile.getFactor();
+    }
+
+    /**
+     * @param factor the efficiency factor (the efficiency is divided by it in some parts of the run)
+     */
+    public void setFactor(double factor) {
+        setProfile(profile.withFactor(factor));
+    }
+
+    /**
+     * @return how the efficiency changes during the run
+     */
+    public EfficiencyProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @param profile how the efficiency changes during the run (the current position is kept)
+     */
+    public void setProfile(EfficiencyProfile profile) {
+        this.profile = profile;
+        prepare();
+        setPosition(counter);
     }
 }
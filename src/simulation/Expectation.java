@@ -0,0 +1,197 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The expected counts of a run, computed exactly instead of by drawing random
+ * numbers. With random angles the hidden variable is uniform from 0 to 180
+ * degrees, and a deterministic model only changes its outcome at a few points
+ * (see OutcomePartition), so the joint probability of the spins at A and B for
+ * each pair of settings is the overlap of two sets of intervals. The run is
+ * split where the efficiency of the entangler or the probabilities of the
+ * settings change (a skewed generator favors some settings in parts of the
+ * run), and in each piece the expected number of trials for the settings and
+ * spins is just the length of the piece times the product of the
+ * probabilities. This takes a few microseconds, no matter how many trials.
+ *
+ * @author croth
+ */
+public class Expectation {
+
+    /* the expected number of trials for the settings and spins, see index */
+    private final double[] expected = new double[36];
+
+    private final long trials;
+
+    private Expectation(long trials) {
+        this.trials = trials;
+    }
+
+    /*
+    Compute the expected counts of a run
+    @param model the model (it must know the partitions of its outcomes)
+    @param s the settings with the angles at A and B
+    @param rand the generator for the settings (only whether it is skewed and the bias matter)
+    @param entangler the entangler with the efficiency profile
+    @param trials the number of trials of the run
+    @return the expected counts, or null if the model cannot tell its partitions or if the
+    hidden variables are not random (such as when iterating over all angles)
+     */
+    public static Expectation compute(AbstractLHVModel model, Settings s, Rand rand, Entangler entangler, long trials) {
+        if (s.getAngleGenerator() != Settings.LAMBDAGENERATOR.RANDOMANGLES) {
+            return null;
+        }
+        // as in the engine, computeSpinB is used for both sides
+        double[][] joint = new double[4][];
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                OutcomePartition pa = model.getPartition(s.getA()[a]);
+                OutcomePartition pb = model.getPartition(s.getB()[b]);
+                if (pa == null || pb == null) {
+                    return null;
+                }
+                joint[a * 2 + b] = pa.joint(pb);
+            }
+        }
+        Rand bits = rand;
+        if (rand instanceof SkewedRand) {
+            // the parts of a skewed generator depend on the trials of the run
+            SkewedRand skewed = new SkewedRand(((SkewedRand) rand).getBias());
+            skewed.setTrials(trials);
+            bits = skewed;
+        }
+        EfficiencyProfile profile = entangler.getProfile();
+        int parts = profile.size();
+        long[] starts = new long[parts + 1];
+        for (int p = 0; p < parts; p++) {
+            starts[p] = profile.getStartTrial(p, trials);
+        }
+        starts[parts] = trials;
+
+        Expectation e = new Expectation(trials);
+        int part = 0;
+        long t = 0;
+        while (t < trials) {
+            while (t >= starts[part + 1]) {
+                part++;
+            }
+            // randBit is called twice per trial, first for A and then for B
+            long end = starts[part + 1];
+            end = Math.min(end, firstTrial(bits.getNextChange(2 * t), 0, trials));
+            end = Math.min(end, firstTrial(bits.getNextChange(2 * t + 1), 1, trials));
+            e.add(end - t, bits.getProbabilityOfOne(2 * t), bits.getProbabilityOfOne(2 * t + 1),
+                    profile.getEfficiency(part), joint);
+            t = end;
+        }
+        return e;
+    }
+
+    /* @return the first trial where the call of randBit for one side is at least call */
+    private static long firstTrial(long call, int side, long trials) {
+        if (call >= 2 * trials) {
+            return trials;
+        }
+        return Math.max(0, (call - side + 1) / 2);
+    }
+
+    /* Add n trials with the same probabilities */
+    private void add(long n, double oneA, double oneB, double efficiency, double[][] joint) {
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                double w = n * (a == 1 ? oneA : 1 - oneA) * (b == 1 ? oneB : 1 - oneB);
+                int base = index(a, b, -1, -1);
+                // photons that are not entangled are not detected
+                expected[base] += w * (1 - efficiency);
+                double[] p = joint[a * 2 + b];
+                for (int k = 0; k < p.length; k++) {
+                    expected[base + k] += w * efficiency * p[k];
+                }
+            }
+        }
+    }
+
+    private static int index(int whichA, int whichB, int spinA, int spinB) {
+        return (whichA * 2 + whichB) * 9 + (spinA + 1) * 3 + spinB + 1;
+    }
+
+    /* @return the number of trials of the run */
+    public long getTrials() {
+        return trials;
+    }
+
+    /*
+    @param whichA 0 for a1 or 1 for a2
+    @param whichB 0 for b1 or 1 for b2
+    @param spinA +1, 0 or -1 (not detected)
+    @param spinB +1, 0 or -1 (not detected)
+    @return the expected number of trials with these settings and spins
+     */
+    public double getExpected(int whichA, int whichB, int spinA, int spinB) {
+        return expected[index(whichA, whichB, spinA, spinB)];
+    }
+
+    /*
+    The expected counts rounded to whole trials, so that they can be used like the counts of
+    a run. The rounding keeps the total at the number of trials (the trials that are left
+    after rounding down go to the largest remainders)
+    @return the counts
+     */
+    public Counts toCounts() {
+        long[] n = new long[expected.length];
+        long left = trials;
+        Integer[] order = new Integer[expected.length];
+        for (int i = 0; i < n.length; i++) {
+            n[i] = (long) Math.floor(expected[i]);
+            left -= n[i];
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> n[i] - expected[i]));
+        for (int i = 0; i < left && i < order.length; i++) {
+            n[order[i]]++;
+        }
+        Counts counts = new Counts();
+        for (int a = 0; a < 2; a++) {
+            for (int b = 0; b < 2; b++) {
+                for (int sa = -1; sa <= 1; sa++) {
+                    for (int sb = -1; sb <= 1; sb++) {
+                        long c = n[index(a, b, sa, sb)];
+                        if (c > 0) {
+                            counts.add(a, b, sa, sb, c);
+                        }
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /*
+    @param in the inequality
+    @return the value of the inequality for the expected counts (rounded to whole trials)
+     */
+    public double getValue(Inequality in) {
+        Inequality ineq = in.copy();
+        ineq.setCounts(toCounts());
+        return ineq.compute();
+    }
+}
@@ -133,4 +133,18 @@ public class Guistina2015 extends Inequality implements Serializable {
         return s;
     }
 
+    /*
+    @return the standard error of J, if each count is a Poisson variable (so its variance is the count)
+    */
+    @Override
+    public double getStandardError() {
+        Counts c = getCounts();
+        return Math.sqrt(c.getDetected(0, 0) + c.getDetZero(0, 1) + c.getZeroDet(1, 0) + c.getDetected(1, 1));
+    }
+
+    @Override
+    public Inequality copy() {
+        return new Guistina2015();
+    }
+
 }
@@ -19,6 +19,9 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 package simulation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  *
  * @author croth
@@ -54,7 +57,28 @@ public abstract class Inequality {
     the individual counts, such as N11 etc, the equation, and the result 
     */
     public abstract String computeString() ;
+
+    /*
+    @return a new inequality of the same kind (without counts), such as for another thread
+    */
+    public abstract Inequality copy();
   
+    /*
+    @param first the inequality to put first (such as the inequality of a run)
+    @return first, followed by a new instance of each other inequality that can be
+    evaluated (CH, CHSH and Guistina2015)
+    */
+    public static List<Inequality> all(Inequality first) {
+        List<Inequality> all = new ArrayList<>();
+        all.add(first);
+        for (Inequality in : new Inequality[]{new CH(), new CHSH(), new Guistina2015()}) {
+            if (in.getClass() != first.getClass()) {
+                all.add(in);
+            }
+        }
+        return all;
+    }
+
     protected static void p(String s) {
         System.out.println(s);
     }
@@ -63,6 +87,21 @@ public abstract class Inequality {
         return  result >0;
     }
 
+    /*
+    @return the classical limit of the value (0 by default): isBroken is true above it
+    */
+    public double getLimit() {
+        return 0;
+    }
+
+    /*
+    @return the approximate standard error of compute() for the current counts,
+    or NaN if it is not known (the default)
+    */
+    public double getStandardError() {
+        return Double.NaN;
+    }
+
     /**
      * @return the counts
      */
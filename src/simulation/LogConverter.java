@@ -0,0 +1,146 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.text.DecimalFormat;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts a binary log (log.bin) into the csv format of log.csv, for people
+ * who prefer to look at the text file. Compressed logs (log.bin.gz) are
+ * recognized by the gzip magic number and read directly.
+ *
+ * Usage: java -cp Simulation.jar simulation.LogConverter log.bin log.csv
+ *
+ * @author croth
+ */
+public class LogConverter {
+
+    public static void main(String[] args) {
+        String in = args.length > 0 ? args[0] : "log.bin";
+        String out = args.length > 1 ? args[1] : "log.csv";
+        try {
+            long n = convert(in, out);
+            p("Converted " + n + " trials from " + in + " to " + out);
+        } catch (IOException e) {
+            p("Could not convert " + in + " because " + e.getMessage());
+        }
+    }
+
+    /* Convert the binary log into a csv file
+    @param in the binary log
+    @param out the csv file
+    @return the number of trials
+     */
+    public static long convert(String in, String out) throws IOException {
+        DecimalFormat f = new DecimalFormat("#.##");
+        long count = 0;
+        try (ReadableByteChannel channel = open(in);
+                BufferedWriter writer = new BufferedWriter(new FileWriter(out), 1 << 16)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TrialLog.BUFFERSIZE);
+            read(channel, buffer, 8);
+            if (buffer.getInt() != BinaryTrialLog.MAGIC) {
+                throw new IOException(in + " is not a binary log file");
+            }
+            short version = buffer.getShort();
+            if (version < 1 || version > BinaryTrialLog.VERSION) {
+                throw new IOException("Unknown version " + version + " of the binary log");
+            }
+            int recordsize = buffer.getShort();
+            buffer.clear();
+            // version 1 has no flags
+            read(channel, buffer, version == 1 ? BinaryTrialLog.HEADERSIZE1 - 8 : BinaryTrialLog.HEADERSIZE - 8);
+            int flags = version == 1 ? 0 : buffer.getShort();
+            boolean indexed = (flags & BinaryTrialLog.FLAGINDEXED) != 0;
+            int skip = recordsize - (indexed ? BinaryTrialLog.INDEXEDRECORDSIZE : BinaryTrialLog.RECORDSIZE);
+            double[] A = {buffer.getDouble(), buffer.getDouble()};
+            double[] B = {buffer.getDouble(), buffer.getDouble()};
+            buffer.clear();
+
+            writer.write(indexed ? CsvTrialLog.TRIAL + CsvTrialLog.HEADER : CsvTrialLog.HEADER);
+            StringBuilder line = new StringBuilder(128);
+            while (channel.read(buffer) > 0 || buffer.position() > 0) {
+                buffer.flip();
+                if (buffer.remaining() < recordsize) {
+                    break;
+                }
+                while (buffer.remaining() >= recordsize) {
+                    int bits = buffer.get();
+                    int q = buffer.getShort() & 0xFFFF;
+                    long trial = indexed ? buffer.getLong() : count;
+                    buffer.position(buffer.position() + skip);
+                    int whichA = bits & 1;
+                    int whichB = bits >> 1 & 1;
+                    int spinA = (bits >> 2 & 3) - 1;
+                    int spinB = (bits >> 4 & 3) - 1;
+                    line.setLength(0);
+                    if (indexed) {
+                        line.append(trial).append(", ");
+                    }
+                    line.append(whichA).append(", ").append(whichB).append(", ").append(A[whichA]).append(", ").append(B[whichB])
+                            .append(", ").append(spinA).append(", ").append(spinB)
+                            .append(", ").append(spinA >= 0 ? 1 : 0).append(", ").append(spinB >= 0 ? 1 : 0)
+                            .append(", ").append(f.format(BinaryTrialLog.dequantize(q))).append('\n');
+                    writer.append(line);
+                    count++;
+                }
+                buffer.compact();
+            }
+        }
+        return count;
+    }
+
+    /* @return the file, uncompressed if it starts with the gzip magic number */
+    static ReadableByteChannel open(String file) throws IOException {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        stream.mark(2);
+        int b0 = stream.read();
+        int b1 = stream.read();
+        stream.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            stream = new GZIPInputStream(stream, 1 << 16);
+        }
+        return Channels.newChannel(stream);
+    }
+
+    /* read exactly n bytes into the buffer and flip it */
+    private static void read(ReadableByteChannel channel, ByteBuffer buffer, int n) throws IOException {
+        buffer.limit(n);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void p(String s) {
+        System.out.println(s);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decides which trials are written to the log, before anything is formatted:
+ * all trials (the default), every Nth trial, only trials where at least one
+ * side detected a photon, only one pair of settings, or a random sample of a
+ * fixed size (a reservoir). Except for ALL, each entry of the log also has
+ * the index of the trial.
+ *
+ * @author croth
+ */
+public abstract class LogPolicy {
+
+    /*
+    @param trial the index of the trial in the run
+    @param whichA the setting at A (0 or 1)
+    @param whichB the setting at B (0 or 1)
+    @param spinA the spin at A (1, 0 or -1 for not detected)
+    @param spinB the spin at B (1, 0 or -1 for not detected)
+    @param lambda the hidden variable in degrees
+    @return true if the trial should be written now
+     */
+    public abstract boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda);
+
+    /* @return true if the log entries need the index of the trial (all policies but ALL) */
+    public boolean isIndexed() {
+        return true;
+    }
+
+    /* Write the trials that were kept back until the end (for the reservoir) */
+    void drain(TrialLog log) throws IOException {
+    }
+
+    /* @return the policy of the settings */
+    public static LogPolicy create(Settings settings) {
+        long n = settings.getLogPolicyValue();
+        switch (settings.getLogPolicy()) {
+            case EVERY:
+                return new Every(n);
+            case DETECTED:
+                return new Detected();
+            case SETTING:
+                return new Setting((int) (n >> 1 & 1), (int) (n & 1));
+            case RESERVOIR:
+                return new Reservoir((int) n, settings.getSeed());
+            default:
+                return new All();
+        }
+    }
+
+    /* Set the policy of the settings from a description like all, every:100, detected,
+    setting:0:1 (a1 and b2) or reservoir:10000
+    @param s the description
+    @param settings the settings to change
+     */
+    public static void parse(String s, Settings settings) {
+        String[] parts = s.trim().toUpperCase().split(":");
+        String name = parts[0];
+        if (name.startsWith("E")) {
+            settings.setLogPolicy(Settings.LOGPOLICY.EVERY, Math.max(1, Long.parseLong(parts[1])));
+        } else if (name.startsWith("D")) {
+            settings.setLogPolicy(Settings.LOGPOLICY.DETECTED, 0);
+        } else if (name.startsWith("S")) {
+            int a = Integer.parseInt(parts[1]) & 1;
+            int b = Integer.parseInt(parts[2]) & 1;
+            settings.setLogPolicy(Settings.LOGPOLICY.SETTING, a << 1 | b);
+        } else if (name.startsWith("R")) {
+            settings.setLogPolicy(Settings.LOGPOLICY.RESERVOIR, Math.max(1, Long.parseLong(parts[1])));
+        } else if (name.startsWith("A")) {
+            settings.setLogPolicy(Settings.LOGPOLICY.ALL, 0);
+        } else {
+            throw new IllegalArgumentException("Unknown log policy " + s);
+        }
+    }
+
+    /* Every trial */
+    static final class All extends LogPolicy {
+
+        @Override
+        public boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda) {
+            return true;
+        }
+
+        @Override
+        public boolean isIndexed() {
+            return false;
+        }
+    }
+
+    /* Every nth trial (trial 0, n, 2n...) */
+    static final class Every extends LogPolicy {
+
+        private final long n;
+
+        Every(long n) {
+            this.n = n;
+        }
+
+        @Override
+        public boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda) {
+            return trial % n == 0;
+        }
+    }
+
+    /* Trials where at least one side detected a photon */
+    static final class Detected extends LogPolicy {
+
+        @Override
+        public boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda) {
+            return spinA >= 0 || spinB >= 0;
+        }
+    }
+
+    /* Trials with one pair of settings */
+    static final class Setting extends LogPolicy {
+
+        private final int whichA;
+        private final int whichB;
+
+        Setting(int whichA, int whichB) {
+            this.whichA = whichA;
+            this.whichB = whichB;
+        }
+
+        @Override
+        public boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda) {
+            return whichA == this.whichA && whichB == this.whichB;
+        }
+    }
+
+    /*
+    A uniform random sample of k trials (reservoir sampling): the first k trials are kept,
+    and the ith trial after that replaces a random one of them with probability k / i.
+    The sample is kept in memory and written in the order of the trials when the log is closed,
+    it is not in the checkpoint, so a run with it cannot be resumed or continued. It has its own random generator, so it does not change the random numbers of the run
+     */
+    static final class Reservoir extends LogPolicy {
+
+        private final long[] trials;
+        private final byte[] codes;
+        private final double[] lambdas;
+        private final SplitMixSource random = new SplitMixSource();
+        private long seen;
+
+        Reservoir(int k, long seed) {
+            trials = new long[k];
+            codes = new byte[k];
+            lambdas = new double[k];
+            random.setSeed(Rand.mixSeed(seed, -1));
+        }
+
+        @Override
+        public boolean accept(long trial, int whichA, int whichB, int spinA, int spinB, double lambda) {
+            long i = seen++;
+            int slot;
+            if (i < trials.length) {
+                slot = (int) i;
+            } else {
+                long j = (random.nextLong() >>> 1) % (i + 1);
+                if (j >= trials.length) {
+                    return false;
+                }
+                slot = (int) j;
+            }
+            trials[slot] = trial;
+            codes[slot] = BinaryTrialLog.encode(whichA, whichB, spinA, spinB);
+            lambdas[slot] = lambda;
+            return false;
+        }
+
+        @Override
+        void drain(TrialLog log) throws IOException {
+            int n = (int) Math.min(seen, trials.length);
+            // sort the slots by trial (the trials are unique)
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(trials[x], trials[y]));
+            double[] A = log.settings.getA();
+            double[] B = log.settings.getB();
+            for (int slot : order) {
+                int code = codes[slot];
+                int whichA = code & 1;
+                int whichB = code >> 1 & 1;
+                log.write(trials[slot], whichA, whichB, A[whichA], B[whichB],
+                        (code >> 2 & 3) - 1, (code >> 4 & 3) - 1, lambdas[slot]);
+            }
+            seen = 0;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.Arrays;
+import java.util.function.DoubleToIntFunction;
+
+/**
+ * The outcomes of a deterministic model for one angle at a detector, as a
+ * partition of the hidden variable: the range 0 to 180 degrees is split into
+ * intervals, and the model gives the same spin for all hidden variables in an
+ * interval. Since the hidden variable is uniform (with random angles), the
+ * probability of an outcome is just the length of its intervals, and the joint
+ * probabilities of two detectors follow from the overlaps of their intervals,
+ * without drawing a single random number (see Expectation).
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author croth
+ */
+public final class OutcomePartition {
+
+    /* the range of the hidden variable in degrees */
+    public static final double LAMBDAMAX = 180;
+
+    /* the bounds of the intervals (from 0 to LAMBDAMAX), and the spin in each interval */
+    private final double[] bounds;
+    private final byte[] spins;
+
+    /*
+    @param bounds the bounds of the intervals, increasing from 0 to LAMBDAMAX (one more than spins)
+    @param spins the spin in each interval (+1, 0 or -1 as for computeSpinB)
+     */
+    public OutcomePartition(double[] bounds, byte[] spins) {
+        if (bounds.length != spins.length + 1 || bounds[0] != 0 || bounds[spins.length] != LAMBDAMAX) {
+            throw new IllegalArgumentException("The intervals must cover 0 to " + LAMBDAMAX);
+        }
+        this.bounds = bounds.clone();
+        this.spins = spins.clone();
+    }
+
+    /*
+    Create the partition of a model that only changes its outcome at the given points.
+    The spin of each interval is the spin in its middle (the outcome at the points
+    themselves does not matter, it has no weight)
+    @param points the points where the outcome can change, in any order (points outside of 0 to LAMBDAMAX are ignored)
+    @param spin the spin for a hidden variable, such as lambda -> model.computeSpinB(angle, lambda)
+     */
+    public static OutcomePartition of(double[] points, DoubleToIntFunction spin) {
+        double[] sorted = new double[points.length + 2];
+        int n = 0;
+        sorted[n++] = 0;
+        sorted[n++] = LAMBDAMAX;
+        for (double p : points) {
+            if (p > 0 && p < LAMBDAMAX) {
+                sorted[n++] = p;
+            }
+        }
+        Arrays.sort(sorted, 0, n);
+        double[] bounds = new double[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || sorted[i] > bounds[m - 1]) {
+                bounds[m++] = sorted[i];
+            }
+        }
+        bounds = Arrays.copyOf(bounds, m);
+        byte[] spins = new byte[m - 1];
+        for (int i = 0; i < spins.length; i++) {
+            spins[i] = (byte) spin.applyAsInt((bounds[i] + bounds[i + 1]) / 2);
+        }
+        return new OutcomePartition(bounds, spins);
+    }
+
+    /* @return the probability of the given spin for a uniform hidden variable */
+    public double getProbability(int spin) {
+        double length = 0;
+        for (int i = 0; i < spins.length; i++) {
+            if (spins[i] == spin) {
+                length += bounds[i + 1] - bounds[i];
+            }
+        }
+        return length / LAMBDAMAX;
+    }
+
+    /*
+    The joint probabilities of the outcomes of this partition and another one for the
+    same (uniform) hidden variable. The bounds of both are merged in one pass
+    @param other the partition at the other detector
+    @return the probabilities at index (spin + 1) * 3 + otherSpin + 1
+     */
+    public double[] joint(OutcomePartition other) {
+        double[] p = new double[9];
+        int i = 0;
+        int j = 0;
+        double from = 0;
+        while (i < spins.length && j < other.spins.length) {
+            double to = Math.min(bounds[i + 1], other.bounds[j + 1]);
+            p[(spins[i] + 1) * 3 + other.spins[j] + 1] += (to - from) / LAMBDAMAX;
+            from = to;
+            if (bounds[i + 1] == to) {
+                i++;
+            }
+            if (other.bounds[j + 1] == to) {
+                j++;
+            }
+        }
+        return p;
+    }
+
+    /* @return the number of intervals */
+    public int size() {
+        return spins.length;
+    }
+
+    /* @return the lower bound of the given interval in degrees */
+    public double getStart(int interval) {
+        return bounds[interval];
+    }
+
+    /* @return the upper bound of the given interval in degrees */
+    public double getEnd(int interval) {
+        return bounds[interval + 1];
+    }
+
+    /* @return the spin in the given interval */
+    public int getSpin(int interval) {
+        return spins[interval];
+    }
+}
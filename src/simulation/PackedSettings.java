@@ -0,0 +1,171 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The settings for A and B of each trial, packed into 2 bits per trial (32
+ * trials per long). A file with 10^8 settings needs just 25 MB instead of an
+ * int[2] per trial.
+ *
+ * @author croth
+ */
+public class PackedSettings {
+
+    /* the settings are read from the file in segments of this size */
+    private static final int SEGMENT = 1 << 26;
+
+    private long[] words;
+    private long size;
+
+    public PackedSettings() {
+        this(32);
+    }
+
+    /* @param capacity the expected number of trials */
+    public PackedSettings(long capacity) {
+        words = new long[(int) Math.max(1, (capacity + 31) >>> 5)];
+    }
+
+    /* Add the settings of one trial
+    @param whichA the setting at A (0 or 1)
+    @param whichB the setting at B (0 or 1)
+     */
+    public void add(int whichA, int whichB) {
+        int w = (int) (size >>> 5);
+        if (w == words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        words[w] |= (long) (whichA | whichB << 1) << ((size & 31) << 1);
+        size++;
+    }
+
+    /* @return the setting at A (0 or 1) for trial t */
+    public int getA(long t) {
+        return (int) (words[(int) (t >>> 5)] >>> ((t & 31) << 1)) & 1;
+    }
+
+    /* @return the setting at B (0 or 1) for trial t */
+    public int getB(long t) {
+        return (int) (words[(int) (t >>> 5)] >>> (((t & 31) << 1) + 1)) & 1;
+    }
+
+    /* @return the number of trials */
+    public long size() {
+        return size;
+    }
+
+    /* Read the settings from a file.
+    The file should consist of one line per experiment (per pair), such as
+    0, 1
+    The first value is the setting to be used at detector A (angle a1 or a2)
+    The second value is the setting to be used at detector B (anngle b1 or b2)
+    The values can be separated by , or ; or tab or spaces
+    Only 0 and 1 are allowed (as there are only 2 settings per detector :-)
+    Lines that are not valid are skipped.
+    The file is mapped into memory in segments and parsed byte by byte, without
+    creating any objects per line.
+    @param file the file with the settings
+    @return the settings
+     */
+    public static PackedSettings read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            // each valid line has at least 3 characters and a line break
+            PackedSettings settings = new PackedSettings(length / 4 + 1);
+
+            // the state of the parser is kept across the segments
+            int value = -1;     // the number that is being read (-1 if none)
+            int count = 0;      // the number of values in this line so far
+            int a = -1;
+            int b = -1;
+            boolean valid = true;
+            long invalid = 0;
+            long line = 0;
+
+            for (long pos = 0; pos <= length; pos += SEGMENT) {
+                long n = Math.min(SEGMENT, length - pos);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, n);
+                boolean end = pos + n >= length;
+                for (int i = 0; i <= n; i++) {
+                    int c;
+                    if (i < n) {
+                        c = buffer.get(i);
+                    } else if (end) {
+                        // the last line might not have a line break
+                        c = '\n';
+                    } else {
+                        break;
+                    }
+                    if (c >= '0' && c <= '9') {
+                        value = value < 0 ? c - '0' : Math.min(value * 10 + c - '0', 10);
+                        continue;
+                    }
+                    if (value >= 0) {
+                        if (count == 0) {
+                            a = value;
+                        } else if (count == 1) {
+                            b = value;
+                        }
+                        count++;
+                        value = -1;
+                    }
+                    if (c == '\n') {
+                        if (count > 0 || !valid) {
+                            if (valid && count >= 2 && a <= 1 && b <= 1) {
+                                settings.add(a, b);
+                            } else {
+                                invalid++;
+                                if (invalid <= 10) {
+                                    p("Setting in line " + (line + 1) + " is not valid. Expecting 2 values, 0 or 1");
+                                }
+                            }
+                        }
+                        line++;
+                        count = 0;
+                        valid = true;
+                    } else if (c != ',' && c != ';' && c != ' ' && c != '\t' && c != '\r') {
+                        valid = false;
+                    }
+                }
+                if (end) {
+                    break;
+                }
+            }
+            settings.words = Arrays.copyOf(settings.words, (int) Math.max(1, (settings.size + 31) >>> 5));
+            if (invalid > 0) {
+                p("Skipped " + invalid + " lines that were not valid");
+            }
+            p("Found " + settings.size + " settings in file " + file);
+            return settings;
+        }
+    }
+
+    private static void p(String s) {
+        System.out.println(s);
+    }
+}
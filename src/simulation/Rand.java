@@ -20,12 +20,16 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 package simulation;
 
 import java.io.Serializable;
-import java.util.Random;
+import java.util.Arrays;
 
 /**
  *
  * Simple random generator. Feel free to use predefined values or to use a
  * different random generator (It really should not make a difference...)
+ * The numbers come from a RandomSource: the default (LEGACY) gives the same
+ * numbers as java.util.Random, SPLITMIX and XOSHIRO are faster. The state can
+ * be saved and restored, so a run can be continued exactly from a checkpoint.
+ * A Rand is not synchronized, each thread should have its own (see split).
  *
  * @author croth
  */
@@ -33,50 +37,163 @@ public class Rand implements Serializable {
 
     private static final long serialversionUID = 1L;
 
-    private Random generator;
+    private RandomSource source;
 
-    private static Rand rand;
+    private Settings.RANDOMGENERATOR generator;
 
-    protected int trials;
+    /* The fast generators hand out the bits of one 64 bit word one after the other,
+    instead of drawing a whole number for each bit (LEGACY keeps the old bits) */
+    private boolean buffered;
+    private long bits;
+    private int bitsLeft;
 
-    public static Rand getRand() {
-        if (rand == null) {
-            rand = new Rand();
+    protected long trials;
+
+    /* the seed that was last used, needed to derive the streams for parallel workers */
+    protected long seed;
+
+    public Rand() {
+        this(Settings.RANDOMGENERATOR.LEGACY);
+    }
+
+    /* @param generator the algorithm to use */
+    public Rand(Settings.RANDOMGENERATOR generator) {
+        setGenerator(generator);
+        setSeed(mixSeed(System.nanoTime(), System.identityHashCode(this)));
+    }
+
+    /* Switch to another algorithm. Call setSeed afterwards */
+    public void setGenerator(Settings.RANDOMGENERATOR generator) {
+        this.generator = generator;
+        switch (generator) {
+            case SPLITMIX:
+                source = new SplitMixSource();
+                break;
+            case XOSHIRO:
+                source = new XoshiroSource();
+                break;
+            default:
+                source = new LegacySource();
         }
-        return rand;
+        buffered = generator != Settings.RANDOMGENERATOR.LEGACY;
+        setSeed(seed);
     }
 
-    public Rand() {
-        generator = new Random();
+    /* @return true if the bits are taken from a buffered 64 bit word */
+    public boolean isBuffered() {
+        return buffered;
+    }
+
+    public Settings.RANDOMGENERATOR getGenerator() {
+        return generator;
     }
 
     /* Random int from from (inclusive) to to (inclusive) */
     public int randBit() {
-        double d = randDouble();
-        if (d > 0.5) {
-            return 1 ;
-        } else {
-            return 0;
+        if (buffered) {
+            return nextBits(1);
+        }
+        return source.nextBit();
+    }
+
+    /* The next n random bits from the buffered word
+    @param n the number of bits, 1 or 32 (so that a word is used up exactly)
+    @return the bits as the lowest bits of an int
+     */
+    protected final int nextBits(int n) {
+        if (bitsLeft < n) {
+            bits = source.nextLong();
+            bitsLeft = 64;
         }
+        int r = (int) (bits & ((1L << n) - 1));
+        bits >>>= n;
+        bitsLeft -= n;
+        return r;
     }
 
     public double randDouble() {
-        return generator.nextDouble();
+        return source.nextDouble();
     }
 
     /* Random int from from (inclusive) to to (exclusive) */
     public double randDouble(double from, double to) {
-        return generator.nextDouble() * (to - from) + from;
+        return source.nextDouble() * (to - from) + from;
     }
 
     public void setSeed(long s) {
-        generator.setSeed(s);
+        this.seed = s;
+        source.setSeed(s);
+        bits = 0;
+        bitsLeft = 0;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /* @return the current state of the generator (for a checkpoint), including the buffered bits */
+    public long[] getState() {
+        long[] state = source.getState();
+        if (buffered) {
+            state = Arrays.copyOf(state, state.length + 2);
+            state[state.length - 2] = bits;
+            state[state.length - 1] = bitsLeft;
+        }
+        return state;
+    }
+
+    /* @param state a state returned by getState, to continue exactly where that generator was */
+    public void setState(long[] state) {
+        source.setState(state);
+        bits = 0;
+        bitsLeft = 0;
+        if (buffered) {
+            bits = state[state.length - 2];
+            bitsLeft = (int) state[state.length - 1];
+        }
+    }
+
+    /* Create a new, independent generator of the same kind as this one.
+    The seed of the new generator only depends on the seed of this generator and on
+    the stream number, so parallel workers get the same numbers no matter which
+    thread runs them.
+    @param stream the number of the stream (such as the index of a chunk of trials)
+     */
+    public Rand split(long stream) {
+        Rand r = new Rand(generator);
+        r.setSeed(mixSeed(seed, stream));
+        return r;
+    }
+
+    /* Tell the generator at which trial of the run it starts, in case
+    it behaves differently during the run (the default generator does not care)
+    @param trial the index of the first trial (0 based)
+     */
+    public void setPosition(long trial) {
+    }
+
+    /* The probability that randBit returns 1, for the expected counts of a run (see Expectation)
+    @param call the number of the call of randBit since the start of the run (0 based)
+     */
+    public double getProbabilityOfOne(long call) {
+        return 0.5;
+    }
+
+    /* @return the first call after the given call where getProbabilityOfOne can be different
+    (Long.MAX_VALUE if it never changes) */
+    public long getNextChange(long call) {
+        return Long.MAX_VALUE;
+    }
+
+    /* Derive a well mixed seed from a seed and a stream number (SplitMix64) */
+    public static long mixSeed(long seed, long stream) {
+        return SplitMixSource.mix(seed + (stream + 1) * 0x9E3779B97F4A7C15L);
     }
 
     /**
      * @param trials the trials to set
      */
-    public void setTrials(int trials) {
+    public void setTrials(long trials) {
         this.trials = trials;
     }
 
@@ -0,0 +1,94 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.Serializable;
+
+/**
+ * The random generators of one run: one for the choices (the settings at A and
+ * B and the hidden variable) and one for the physics (whether photons are
+ * entangled, and the models that need random numbers). Each engine owns its
+ * context and hands the generators to its entangler and its model, so several
+ * engines can run in one program, even at the same time, without sharing any
+ * state. With a fair generator both are the same generator, so the results are
+ * the same as in earlier versions. A skewed generator only makes the choices,
+ * the physics get their own generator with a seed derived from the same seed.
+ *
+ * @author croth
+ */
+public class RandContext implements Serializable {
+
+    private static final long serialversionUID = 1L;
+
+    /* the stream (see Rand.mixSeed) of the physics when the choices are skewed */
+    private static final long PHYSICS = -2;
+
+    private final Rand choices;
+    private final Rand physics;
+
+    /*
+    @param choices the generator for the settings and the hidden variable
+    @param physics the generator for the entangler and the model (can be the same)
+     */
+    public RandContext(Rand choices, Rand physics) {
+        this.choices = choices;
+        this.physics = physics;
+    }
+
+    /*
+    Create the generators for a run with the generator and the seed of the settings
+    @param s the settings
+    @param bias the bias of a skewed generator, or NaN for a fair generator
+    @return a new context
+     */
+    public static RandContext create(Settings s, double bias) {
+        if (Double.isNaN(bias)) {
+            Rand rand = new Rand(s.getRandomGenerator());
+            rand.setSeed(s.getSeed());
+            return new RandContext(rand, rand);
+        }
+        RandContext context = new RandContext(new SkewedRand(bias, s.getRandomGenerator()), new Rand(s.getRandomGenerator()));
+        context.setSeed(s.getSeed());
+        return context;
+    }
+
+    /* Start both generators again from the given seed */
+    public void setSeed(long seed) {
+        choices.setSeed(seed);
+        if (physics != choices) {
+            physics.setSeed(Rand.mixSeed(seed, PHYSICS));
+        }
+    }
+
+    /* @return true if the choices and the physics use the same generator */
+    public boolean isShared() {
+        return physics == choices;
+    }
+
+    /* @return the generator for the settings and the hidden variable */
+    public Rand getChoices() {
+        return choices;
+    }
+
+    /* @return the generator for the entangler and the models */
+    public Rand getPhysics() {
+        return physics;
+    }
+}
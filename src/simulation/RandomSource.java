@@ -0,0 +1,53 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.Serializable;
+
+/**
+ * The algorithm behind Rand. The sources are not synchronized: each thread
+ * (each Rand) has its own source.
+ *
+ * @author croth
+ */
+public interface RandomSource extends Serializable {
+
+    /* Start the sequence for the given seed */
+    void setSeed(long seed);
+
+    /* @return 64 random bits */
+    long nextLong();
+
+    /* @return a uniform random number from 0 (inclusive) to 1 (exclusive) */
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /* @return a random bit (0 or 1) */
+    default int nextBit() {
+        return (int) (nextLong() >>> 63);
+    }
+
+    /* @return the complete state of the generator (for a checkpoint) */
+    long[] getState();
+
+    /* @param state a state returned by getState, to continue exactly where that generator was */
+    void setState(long[] state);
+}
@@ -44,10 +44,64 @@ public class Settings implements Serializable {
 
     private LAMBDAGENERATOR angleGenerator = LAMBDAGENERATOR.RANDOMANGLES;
 
+    /* changes whenever the angles or the entanglement efficiency are set, so that
+    models can drop values they computed for the old settings */
+    private transient int version;
+
     public enum LAMBDAGENERATOR {
         RANDOMANGLES, ITERATE, SUPPLIED
     }
 
+    /* The algorithm of the random generator. LEGACY gives the same numbers as earlier versions */
+    private RANDOMGENERATOR randomGenerator = RANDOMGENERATOR.LEGACY;
+
+    public enum RANDOMGENERATOR {
+        LEGACY, SPLITMIX, XOSHIRO
+    }
+
+    /* The format of the log with one entry per trial (log.bin or log.csv) */
+    private LOGFORMAT logFormat = LOGFORMAT.BINARY;
+
+    public enum LOGFORMAT {
+        BINARY, CSV
+    }
+
+    /* The memory for the buffers of the log in bytes, and into how many buffers it is split.
+    When all buffers are waiting for the disk, the run waits too */
+    private transient long logMemory = (long) TrialLog.BUFFERSIZE * TrialLog.BUFFERS;
+    private transient int logBuffers = TrialLog.BUFFERS;
+
+    /* Which trials are written to the log (see LogPolicy), and the value for the policy:
+    n for EVERY, 2 * whichA + whichB for SETTING, the size of the sample for RESERVOIR */
+    private LOGPOLICY logPolicy = LOGPOLICY.ALL;
+    private long logPolicyValue;
+
+    public enum LOGPOLICY {
+        ALL, EVERY, DETECTED, SETTING, RESERVOIR
+    }
+
+    /* The gzip compression level of the log (0 - 9), or -1 for no compression */
+    private int logCompression = -1;
+
+    /* @return a copy of these settings that can be changed independently (such as by a worker thread) */
+    public Settings copy() {
+        Settings s = new Settings();
+        s.entanglementEfficiency = entanglementEfficiency;
+        s.A = A.clone();
+        s.B = B.clone();
+        s.seed = seed;
+        s.trials = trials;
+        s.angleGenerator = angleGenerator;
+        s.logFormat = logFormat;
+        s.randomGenerator = randomGenerator;
+        s.logMemory = logMemory;
+        s.logBuffers = logBuffers;
+        s.logCompression = logCompression;
+        s.logPolicy = logPolicy;
+        s.logPolicyValue = logPolicyValue;
+        return s;
+    }
+
     public String toShortString() {
         return "A1, " + getA()[0]
                 + " A2, " + getA()[1]
@@ -63,7 +117,8 @@ public class Settings implements Serializable {
                 + "B1, " + getB()[0] + ", angle at detector B in degrees\n"
                 + "B2, " + getB()[1] + ", angle at detector B in degrees\n"
                 + "entanglementEfficiency, " + getEntanglementEfficiency() + "\n"
-                + "Seed, " + getSeed() + ", the seed used in the random generator");
+                + "Seed, " + getSeed() + ", the seed used in the random generator\n"
+                + "Generator, " + getRandomGenerator() + ", the algorithm of the random generator");
     }
 
     /**
@@ -78,6 +133,7 @@ public class Settings implements Serializable {
      */
     public void setEntanglementEfficiency(double entanglementEfficiency) {
         this.entanglementEfficiency = entanglementEfficiency;
+        version++;
     }
 
     /**
@@ -92,6 +148,7 @@ public class Settings implements Serializable {
      */
     public void setA(double[] A) {
         this.A = A;
+        version++;
     }
 
     /**
@@ -106,6 +163,14 @@ public class Settings implements Serializable {
      */
     public void setB(double[] B) {
         this.B = B;
+        version++;
+    }
+
+    /**
+     * @return the version of the angles and the entanglement efficiency
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
@@ -136,6 +201,99 @@ public class Settings implements Serializable {
         this.angleGenerator = angleGenerator;
     }
 
+    /**
+     * @return the algorithm of the random generator
+     */
+    public RANDOMGENERATOR getRandomGenerator() {
+        return randomGenerator;
+    }
+
+    /**
+     * @param randomGenerator the algorithm of the random generator
+     */
+    public void setRandomGenerator(RANDOMGENERATOR randomGenerator) {
+        this.randomGenerator = randomGenerator;
+    }
+
+    /**
+     * @return the format of the log file
+     */
+    public LOGFORMAT getLogFormat() {
+        return logFormat;
+    }
+
+    /**
+     * @param logFormat the format of the log file
+     */
+    public void setLogFormat(LOGFORMAT logFormat) {
+        this.logFormat = logFormat;
+    }
+
+    /**
+     * @return the memory for the buffers of the log in bytes
+     */
+    public long getLogMemory() {
+        return logMemory;
+    }
+
+    /**
+     * @param logMemory the memory for the buffers of the log in bytes
+     */
+    public void setLogMemory(long logMemory) {
+        this.logMemory = logMemory;
+    }
+
+    /**
+     * @return the number of buffers of the log
+     */
+    public int getLogBuffers() {
+        return logBuffers;
+    }
+
+    /**
+     * @param logBuffers the number of buffers of the log (at least 2)
+     */
+    public void setLogBuffers(int logBuffers) {
+        this.logBuffers = logBuffers;
+    }
+
+    /**
+     * @return which trials are written to the log
+     */
+    public LOGPOLICY getLogPolicy() {
+        return logPolicy;
+    }
+
+    /**
+     * @return the value for the log policy (see LogPolicy)
+     */
+    public long getLogPolicyValue() {
+        return logPolicyValue;
+    }
+
+    /**
+     * @param logPolicy which trials are written to the log
+     * @param value the value for the policy: n for EVERY, 2 * whichA + whichB for SETTING, the size for RESERVOIR
+     */
+    public void setLogPolicy(LOGPOLICY logPolicy, long value) {
+        this.logPolicy = logPolicy;
+        this.logPolicyValue = value;
+    }
+
+    /**
+     * @return the gzip compression level of the log (0 - 9), or -1 for no compression
+     */
+    public int getLogCompression() {
+        return logCompression;
+    }
+
+    /**
+     * @param logCompression the gzip compression level of the log (0 - 9), or -1 for no compression
+     */
+    public void setLogCompression(int logCompression) {
+        this.logCompression = Math.max(-1, Math.min(9, logCompression));
+    }
+
     /**
      * @return the trials
      */
@@ -5,16 +5,8 @@
  */
 package simulation;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 /*
  The MIT License (MIT)
@@ -50,14 +42,31 @@ public class Simulation {
     /* Main method and entry point for the program */
     public static void main(String[] args) {
         p("Please see the README.TXT for instructions");
-        int[][] values = null;
+        PackedSettings values = null;
         long seed = 1234;
         String ineq = "G";
         String model = "W";
         String mode = "RESTART";
-        String statefile = "saved.ser";
+        String statefile = "saved.ckpt";
         String rand = "SKEWED";
-        int trials = 100000;
+        long trials = 100000;
+        int threads = 1;
+        long checkpoint = 0;
+        Settings.RANDOMGENERATOR generator = Settings.RANDOMGENERATOR.LEGACY;
+        Settings.LOGFORMAT logFormat = Settings.LOGFORMAT.BINARY;
+        String sweep = null;
+        int replicates = 0;
+        double stop = 0;
+        long logMemory = 0;
+        int logBuffers = 0;
+        int compression = -1;
+        String logPolicy = null;
+        int tableSteps = 0;
+        int windows = 0;
+        long seriesEvery = 0;
+        int seriesSize = Engine.SERIESSIZE;
+        boolean interpolate = false;
+        EfficiencyProfile efficiency = null;
 
         if (args != null && args.length > 1) {
             for (int i = 0; i + 1 < args.length; i += 2) {
@@ -69,6 +78,14 @@ public class Simulation {
                 if (key.startsWith("F")) {
                     File f = new File(value);
                     values = readSettings(f);
+                } else if (key.startsWith("SW")) {
+                    sweep = value;
+                } else if (key.startsWith("ST")) {
+                    try {
+                        stop = Double.parseDouble(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to a number. Try something like 3");
+                    }
                 } else if (key.startsWith("S")) {
                     try {
                         seed = Long.parseLong(value);
@@ -76,11 +93,56 @@ public class Simulation {
                         p("Could not convert " + value + " to long. Try something like 24252");
 
                     }
+                } else if (key.startsWith("TA")) {
+                    try {
+                        String[] parts = value.split(":");
+                        tableSteps = Integer.parseInt(parts[0]);
+                        interpolate = parts.length > 1 && parts[1].toUpperCase().startsWith("L");
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 3600 or 3600:linear");
+                    }
+                } else if (key.startsWith("TH")) {
+                    try {
+                        threads = Integer.parseInt(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 8");
+                    }
                 } else if (key.startsWith("T")) {
                     try {
-                        trials = Integer.parseInt(value);
+                        trials = Long.parseLong(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to long. Try something like 10000");
+                    }
+                } else if (key.startsWith("CONV")) {
+                    try {
+                        String[] parts = value.split(":");
+                        seriesEvery = Long.parseLong(parts[0]);
+                        if (parts.length > 1) {
+                            seriesSize = Integer.parseInt(parts[1]);
+                        }
                     } catch (Exception ex) {
-                        p("Could not convert " + value + " to int. Try something like 10000");
+                        p("Could not convert " + value + " to long. Try something like 100000 or 100000:1000");
+                    }
+                } else if (key.startsWith("CO")) {
+                    try {
+                        compression = Integer.parseInt(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 1 (fast) to 9 (small)");
+                    }
+                } else if (key.startsWith("C")) {
+                    try {
+                        checkpoint = Long.parseLong(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to long. Try something like 1000000");
+                    }
+                } else if (key.startsWith("G")) {
+                    value = value.toUpperCase();
+                    if (value.startsWith("S")) {
+                        generator = Settings.RANDOMGENERATOR.SPLITMIX;
+                    } else if (value.startsWith("X")) {
+                        generator = Settings.RANDOMGENERATOR.XOSHIRO;
+                    } else {
+                        generator = Settings.RANDOMGENERATOR.LEGACY;
                     }
                 } else if (key.startsWith("I")) {
                     value = value.toUpperCase();
@@ -102,10 +164,50 @@ public class Simulation {
                     value = value.toUpperCase();
                     if (value.startsWith("C")) {
                         mode = "CONTINUE";
+                    } else if (value.startsWith("E")) {
+                        mode = "EXPECTED";
                     } else {
                         mode = "RESTART";
                     }
 
+                } else if (key.startsWith("LOGM")) {
+                    try {
+                        logMemory = Long.parseLong(value) << 20;
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to long. Try something like 16");
+                    }
+                } else if (key.startsWith("LOGP")) {
+                    logPolicy = value;
+                } else if (key.startsWith("LOGB")) {
+                    try {
+                        logBuffers = Integer.parseInt(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 4");
+                    }
+                } else if (key.startsWith("L")) {
+                    if (value.toUpperCase().startsWith("C")) {
+                        logFormat = Settings.LOGFORMAT.CSV;
+                    } else {
+                        logFormat = Settings.LOGFORMAT.BINARY;
+                    }
+                } else if (key.startsWith("W")) {
+                    try {
+                        windows = Integer.parseInt(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 10");
+                    }
+                } else if (key.startsWith("E")) {
+                    try {
+                        efficiency = EfficiencyProfile.parse(value);
+                    } catch (RuntimeException ex) {
+                        p("Could not read the efficiency profile " + value + ". Try something like factor=1.9,0:2,28:1,52:0,73:1");
+                    }
+                } else if (key.startsWith("REP")) {
+                    try {
+                        replicates = Integer.parseInt(value);
+                    } catch (Exception ex) {
+                        p("Could not convert " + value + " to int. Try something like 100");
+                    }
                 } else if (key.startsWith("R")) {
                     value = value.toUpperCase();
                     if (value.startsWith("S")) {
@@ -124,105 +226,170 @@ public class Simulation {
         Settings settings = new Settings();
         settings.setSeed(seed);
         settings.setTrials(trials);
+        settings.setLogFormat(logFormat);
+        settings.setRandomGenerator(generator);
+        if (logMemory > 0) {
+            settings.setLogMemory(logMemory);
+        }
+        if (logBuffers > 0) {
+            settings.setLogBuffers(logBuffers);
+        }
+        settings.setLogCompression(compression);
+        if (logPolicy != null) {
+            try {
+                LogPolicy.parse(logPolicy, settings);
+            } catch (RuntimeException ex) {
+                p("Could not read the log policy " + logPolicy + ". Try something like every:100, detected, setting:0:1 or reservoir:10000");
+            }
+        }
+        if (checkpoint > 0 && settings.getLogPolicy() == Settings.LOGPOLICY.RESERVOIR) {
+            p("A reservoir sample of the log is only kept in memory, so a run with it cannot be resumed. Do not use -checkpoint with it");
+            System.exit(1);
+        }
         boolean fair = rand.toUpperCase().startsWith("F");
         boolean continueExperiment = false;
+        if (sweep != null) {
+            runSweep(createModel(model, settings, tableSteps, interpolate), createInequality(ineq), settings, fair, sweep, threads, efficiency);
+            System.exit(0);
+        }
+        if (replicates > 0) {
+            runEnsemble(createModel(model, settings, tableSteps, interpolate), createInequality(ineq), settings, fair, replicates, threads, efficiency);
+            System.exit(0);
+        }
+        if (mode.equalsIgnoreCase("EXPECTED")) {
+            engine = new Engine(createModel(model, settings, tableSteps, interpolate), createInequality(ineq), fair);
+            printDivergence(engine.model);
+            if (efficiency != null) {
+                engine.setEfficiencyProfile(efficiency);
+            }
+            if (values != null) {
+                p("The expected counts are for random settings, the settings in the file are not used");
+            }
+            engine.runExpected(trials);
+            System.exit(0);
+        }
         if (mode.equalsIgnoreCase("CONTINUE")) {
             p("Attempting to continue last run using file " + statefile);
             engine = loadModel(statefile);
             if (engine == null) {
                 p("I was not able to read the file " + statefile);
+            } else if (engine.settings.getLogPolicy() == Settings.LOGPOLICY.RESERVOIR) {
+                p("The log of the last run is a reservoir sample, which is only kept in memory, so the run cannot be continued");
+                System.exit(1);
             } else {
                 continueExperiment = true;
             }
         } else {
-            Inequality in;
-            AbstractLHVModel lhv;
-            if (ineq.startsWith("S")  || ineq.startsWith("CHS")) {
-                in = new CHSH();
-            } else if (ineq.startsWith("C")) {
-                in = new CH();
-            } else {
-                in = new Guistina2015();
-            }
-
-            if (model.startsWith("T")) {
-                lhv = new TrivialModel(settings);
-
-            } else {
-                lhv = new WangLHVModel(settings);
-            }
-
-            engine = new Engine(lhv, in, fair);
+            engine = new Engine(createModel(model, settings, tableSteps, interpolate), createInequality(ineq), fair);
         }
 
-        engine.run(trials, values, continueExperiment);
+        printDivergence(engine.model);
+        engine.setSeries(seriesEvery, seriesSize);
+        if (windows > 0) {
+            engine.setWindows(windows);
+        }
+        if (efficiency != null) {
+            engine.setEfficiencyProfile(efficiency);
+        }
+        engine.setCheckpoint(statefile, checkpoint);
+        engine.setEarlyStop(stop, Math.min(10000, trials));
+        engine.enableMetrics();
+        if (continueExperiment && engine.isInterrupted()) {
+            p("Finishing the interrupted run first");
+            engine.resume(values);
+        }
+        if (threads > 1) {
+            engine.runParallel(trials, values, continueExperiment, threads);
+        } else {
+            engine.run(trials, values, continueExperiment);
+        }
         // save model to a file with all settings, in case we want to continue
         saveModel(engine, statefile);
+        engine.disableMetrics();
         System.exit(0);
     }
 
-    /* Read the settings to be used froma file.
-    The file should consist of one line per experiment (per pair), such as
-    0, 1
-    The first value is the setting to be used at detector A (angle a1 or a2)
-    The second value is the setting to be used at detector B (anngle b1 or b2)
-    The values should be separated by , or ; or tab (but consistently :-)
-    Only 0 and 1 are allowed (as there are only 2 settings per detector :-)
-     */
-    private static int[][] readSettings(File file) {
-        ArrayList<String> lines = new ArrayList<>();
-        String sep = null;
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
+    private static Inequality createInequality(String ineq) {
+        if (ineq.startsWith("S") || ineq.startsWith("CHS")) {
+            return new CHSH();
+        } else if (ineq.startsWith("C")) {
+            return new CH();
+        } else {
+            return new Guistina2015();
+        }
+    }
 
-                if (sep == null) {
-                    if (line.contains(",")) {
-                        sep = ",";
-                    } else if (line.contains("\t")) {
-                        sep = "\t";
-                    } else if (line.contains(";")) {
-                        sep = ";";
-                    } else if (line.contains(" ")) {
-                        sep = " ";
-                    } else {
-                        continue;
-                    }
-                    p("Using separator " + sep);
-                }
-                lines.add(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static AbstractLHVModel createModel(String model, Settings settings, int tableSteps, boolean interpolate) {
+        AbstractLHVModel lhv;
+        if (model.startsWith("T")) {
+            lhv = new TrivialModel(settings);
+        } else {
+            lhv = new WangLHVModel(settings);
+        }
+        if (tableSteps > 0) {
+            lhv = new TabulatedModel(lhv, tableSteps, interpolate);
         }
+        return lhv;
+    }
 
-        int values[][] = new int[lines.size()][2];
-        int pos = -1;
-        for (String line : lines) {
-            pos++;
-            String[] it = line.split(sep);
-            values[pos][0] = -1;
-            values[pos][1] = -1;
-            if (it.length < 2) {
-                p("Setting " + line + " is not valid. Expecting 2 values, but got " + it.length + ". Values is " + Arrays.toString(it));
-                continue;
-            }
-            int s0 = Integer.parseInt(it[0]);
-            int s1 = Integer.parseInt(it[1]);
-            if (s0 < 0 || s0 > 1 || s1 < 0 || s1 > 1) {
-                p("Setting " + line + " is not valid. Expecting setting 1 and 2 only");
-                continue;
-            }
-            values[pos][0] = s0;
-            values[pos][1] = s1;
+    /* Tell how far a tabulated model is from the model it tabulates, for the current angles */
+    private static void printDivergence(AbstractLHVModel lhv) {
+        if (lhv instanceof TabulatedModel) {
+            TabulatedModel table = (TabulatedModel) lhv;
+            p("Tabulated " + table.getModel().getClass().getSimpleName() + " with " + table.getSteps()
+                    + " steps, the largest divergence from the model is " + table.getMaxDivergence());
+        }
+    }
+
+    /* Run the experiment for all combinations of the given ranges (see Sweep) */
+    private static void runSweep(AbstractLHVModel lhv, Inequality in, Settings settings, boolean fair, String ranges, int threads,
+            EfficiencyProfile efficiency) {
+        settings.setA(in.getPreferredA());
+        settings.setB(in.getPreferredB());
+        printDivergence(lhv);
+        Sweep sweep = new Sweep(lhv, in, settings, fair);
+        if (efficiency != null) {
+            sweep.setProfile(efficiency);
+        }
+        if (threads > 1) {
+            sweep.setThreads(threads);
+        }
+        try {
+            sweep.parse(ranges);
+        } catch (IllegalArgumentException ex) {
+            p("Could not read the sweep " + ranges + " because " + ex.getMessage() + ". Try something like bias=0.05:0.2:0.05,seed=1:8");
+            return;
+        }
+        sweep.run();
+        p("The results are in " + Sweep.FILE);
+    }
 
+    /* Run the experiment with many seeds and summarize the results (see Ensemble) */
+    private static void runEnsemble(AbstractLHVModel lhv, Inequality in, Settings settings, boolean fair, int replicates, int threads,
+            EfficiencyProfile efficiency) {
+        settings.setA(in.getPreferredA());
+        settings.setB(in.getPreferredB());
+        printDivergence(lhv);
+        Ensemble ensemble = new Ensemble(lhv, in, settings, fair ? Double.NaN : SkewedRand.BIAS);
+        if (efficiency != null) {
+            ensemble.setProfile(efficiency);
+        }
+        if (threads > 1) {
+            ensemble.setThreads(threads);
         }
-        p("Found " + values.length + " settings in file " + file);
-        return values;
+        ensemble.run(replicates);
+        p(ensemble.getSummary());
+        p("The results are in " + Ensemble.FILE);
+    }
+
+    /* Read the settings to be used from a file (see PackedSettings.read) */
+    private static PackedSettings readSettings(File file) {
+        try {
+            return PackedSettings.read(file);
+        } catch (IOException e) {
+            p("Could not read the settings from " + file + " because " + e.getMessage());
+        }
+        return null;
     }
 
     private static void p(String s) {
@@ -231,17 +398,9 @@ public class Simulation {
 
     private static Engine loadModel(String filename) {
         try {
-            FileInputStream file = new FileInputStream(filename);
-            ObjectInputStream in = new ObjectInputStream(file);
-
-            Engine engine = (Engine) in.readObject();
-
-            in.close();
-            file.close();
-            return engine;
+            return Checkpoint.load(filename);
         } catch (Exception ex) {
             p("I could not read the saved state from file " + filename + " because: " + ex.getMessage());
-            ex.printStackTrace();
         }
         return null;
     }
@@ -249,11 +408,7 @@ public class Simulation {
     private static void saveModel(Engine engine, String filename) {
         try {
             // Saving the current counts, seed and settings to a file 
-            FileOutputStream file = new FileOutputStream(filename);
-            ObjectOutputStream out = new ObjectOutputStream(file);
-            out.writeObject(engine);
-            out.close();
-            file.close();
+            Checkpoint.save(engine, filename);
         } catch (IOException ex) {
             p("I could not save the current state to file " + filename + " because: " + ex.getMessage());
         }
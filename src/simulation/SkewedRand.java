@@ -19,13 +19,15 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 package simulation;
 
-import java.io.Serializable;
-import java.util.Random;
-
 /**
  *
  * Simple random generator. Feel free to use predefined values or to use a
  * different random generator (It really should not make a difference...)
+ * This one is not fair: in some parts of the run it favors 1 or 0.
+ * The trials where the parts start are computed once per run, so randBit just
+ * compares the counter with the end of the current part. With the fast
+ * generators, the bits come from a buffered 64 bit word: a fair bit is one bit
+ * of the word, a biased bit compares 32 bits with a precomputed threshold.
  *
  * @author croth
  */
@@ -33,36 +35,127 @@ public class SkewedRand extends Rand {
 
     private static final long serialversionUID = 1L;
 
-    int counter;
+    /* the parts of the run, in percent */
+    private static final double[] PARTS = {28, 52, 73};
+
+    /* the default bias */
+    public static final double BIAS = 0.1;
+
+    long counter;
     double bias;
-    static SkewedRand skewed;
 
-    public static Rand getRand(boolean reset, double bias) {
-        if (skewed == null) {
-            skewed = new SkewedRand();
-        }
-        if (reset) {
-            skewed.counter = 0;
-        }
-        skewed.bias = bias;
-        return skewed;
-    }
+    /* the counter where each part ends, the current part and where it ends */
+    private long[] ends = new long[PARTS.length];
+    private int part = PARTS.length;
+    private long partEnd = Long.MAX_VALUE;
+
+    /* 0.5 + bias, as a fraction of 2^32 */
+    private long threshold;
 
     public SkewedRand() {
+        this(BIAS);
+    }
+
+    public SkewedRand(double bias) {
         super();
+        setBias(bias);
+    }
+
+    public SkewedRand(double bias, Settings.RANDOMGENERATOR generator) {
+        super(generator);
+        setBias(bias);
+    }
+
+    public double getBias() {
+        return bias;
+    }
+
+    public void setBias(double bias) {
+        this.bias = bias;
+        threshold = Math.max(0, Math.min(1L << 32, Math.round((0.5 + bias) * (1L << 32))));
     }
 
     @Override
-    public void setTrials(int trials) {
+    public Rand split(long stream) {
+        SkewedRand r = new SkewedRand(bias, getGenerator());
+        r.setSeed(mixSeed(seed, stream));
+        return r;
+    }
+
+    @Override
+    public void setTrials(long trials) {
         this.trials = trials;
-        this.counter = 0;
+        for (int i = 0; i < PARTS.length; i++) {
+            ends[i] = firstCounterAtOrAbove(PARTS[i]);
+        }
+        setPosition(0);
+    }
+
+    /* randBit is called twice per trial (once for A and once for B) */
+    @Override
+    public void setPosition(long trial) {
+        this.counter = 2 * trial;
+        part = 0;
+        while (part < ends.length && counter >= ends[part]) {
+            part++;
+        }
+        partEnd = part < ends.length ? ends[part] : Long.MAX_VALUE;
+    }
+
+    /* @return the first counter where counter * 100 / 2 / trials >= percent
+    (computed exactly like the percentage in earlier versions of randBit) */
+    private long firstCounterAtOrAbove(double percent) {
+        if (trials <= 0) {
+            return 0;
+        }
+        long c = (long) Math.ceil(percent / 100.0 * 2.0 * trials);
+        while (c > 0 && percent(c - 1) >= percent) {
+            c--;
+        }
+        while (percent(c) < percent) {
+            c++;
+        }
+        return c;
+    }
+
+    private double percent(long c) {
+        return (double) c * 100 / 2.0 / trials;
+    }
+
+    /* The probability of a 1 in the part of the call (setTrials must have been called for the run) */
+    @Override
+    public double getProbabilityOfOne(long call) {
+        int p = 0;
+        while (p < ends.length && call >= ends[p]) {
+            p++;
+        }
+        double one = Math.max(0, Math.min(1, 0.5 + bias));
+        if (p == 1) {
+            return one;
+        } else if (p == 2) {
+            return 1 - one;
+        }
+        return 0.5;
+    }
+
+    /* The probability only changes where a part ends */
+    @Override
+    public long getNextChange(long call) {
+        for (long end : ends) {
+            if (end > call) {
+                return end;
+            }
+        }
+        return Long.MAX_VALUE;
     }
 
     /* Random int from from (inclusive) to to (inclusive) */
     @Override
     public int randBit() {
-
-        double per = (double) counter * 100 / 2.0 / trials;
+        while (counter >= partEnd) {
+            part++;
+            partEnd = part < ends.length ? ends[part] : Long.MAX_VALUE;
+        }
         counter++;
 
         /*
@@ -71,14 +164,23 @@ public class SkewedRand extends Rand {
         50 - 75:  generate 1 more. Generate normal photons
         75 - 100: generate 12 equally. Generate fewer photons
         */
+        if (isBuffered()) {
+            if (part == 1) {
+                return (nextBits(32) & 0xFFFFFFFFL) < threshold ? 1 : 0;
+            } else if (part == 2) {
+                return (nextBits(32) & 0xFFFFFFFFL) < threshold ? 0 : 1;
+            } else {
+                return nextBits(1);
+            }
+        }
         double r = super.randDouble();
-        if (per < 28) {
+        if (part == 0) {
             return r <0.5? 0:1;
         }
-        else if (per < 52) {
+        else if (part == 1) {
             return r <0.5 + bias ? 1 :0;
         }
-         else if (per < 73) {
+         else if (part == 2) {
             return r <0.5 + bias ? 0 : 1;
         }
          else {
@@ -87,6 +189,4 @@ public class SkewedRand extends Rand {
 
     }
 
-
-
 }
@@ -0,0 +1,326 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs an experiment for all combinations of a few parameters: the bias of the
+ * skewed random generator, the entanglement efficiency r, the efficiency factor
+ * of the entangler, the seed and the number of trials. Each combination (a
+ * point of the grid) is a fork-join task with its own settings, random
+ * generators, model and entangler, and the chunks of trials of a point are
+ * again tasks, so idle threads steal work from the long points. The result of
+ * a point is the same as the result of Engine.runParallel with these
+ * parameters. All results are written into one table (sweep.csv).
+ *
+ * @author croth
+ */
+public class Sweep {
+
+    /* the file with the results */
+    static final String FILE = "sweep.csv";
+
+    static final String HEADER = "Bias, r, Factor, Seed, Trials, Value, Broken, % detected, ms";
+
+    private final AbstractLHVModel model;
+    private final Inequality in;
+    private final Settings settings;
+
+    /* the ranges, by default just the values of the settings */
+    private Range bias;
+    private Range r;
+    private Range factor;
+    private Range seed;
+    private Range trials;
+
+    /* the segments of the efficiency, each point uses them with its factor */
+    private EfficiencyProfile profile = EfficiencyProfile.STANDARD;
+
+    /* whether the fair random generator is used when no bias is given */
+    private boolean fair;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /*
+    @param model the model, each point uses a copy
+    @param in the inequality to compute, each point uses a copy
+    @param settings the settings to start from (angles, generator etc)
+    @param fair true for the fair random generator, false for the skewed one (unless a bias is given)
+     */
+    public Sweep(AbstractLHVModel model, Inequality in, Settings settings, boolean fair) {
+        this.model = model;
+        this.in = in;
+        this.settings = settings;
+        this.fair = fair;
+        bias = new Range(SkewedRand.BIAS);
+        r = new Range(settings.getEntanglementEfficiency());
+        factor = new Range(Entangler.FACTOR);
+        seed = new Range(settings.getSeed());
+        trials = new Range(settings.getTrials());
+    }
+
+    /* One result of the sweep */
+    public static final class Point {
+
+        /* NaN if the fair random generator was used */
+        public final double bias;
+        public final double r;
+        public final double factor;
+        public final long seed;
+        public final long trials;
+
+        Counts counts;
+        double value;
+        boolean broken;
+        long millis;
+
+        Point(double bias, double r, double factor, long seed, long trials) {
+            this.bias = bias;
+            this.r = r;
+            this.factor = factor;
+            this.seed = seed;
+            this.trials = trials;
+        }
+
+        public Counts getCounts() {
+            return counts;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public boolean isBroken() {
+            return broken;
+        }
+
+        /* @return one line of the results table */
+        @Override
+        public String toString() {
+            return (Double.isNaN(bias) ? "fair" : String.valueOf(bias)) + ", " + r + ", " + factor + ", " + seed + ", " + trials
+                    + ", " + value + ", " + broken + ", " + Engine.f.format(counts.getPercentBothDetected()) + ", " + millis;
+        }
+    }
+
+    /* A range of values from (inclusive) to (inclusive) with a step, such as 0.1:0.5:0.1 */
+    public static final class Range {
+
+        private final double from;
+        private final double to;
+        private final double step;
+
+        /* just one value */
+        public Range(double value) {
+            this(value, value, 1);
+        }
+
+        public Range(double from, double to, double step) {
+            if (step <= 0 || to < from) {
+                throw new IllegalArgumentException("Invalid range " + from + ":" + to + ":" + step);
+            }
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        /* @param s a value, from:to (step 1) or from:to:step */
+        public static Range parse(String s) {
+            String[] parts = s.trim().split(":");
+            double from = Double.parseDouble(parts[0]);
+            double to = parts.length > 1 ? Double.parseDouble(parts[1]) : from;
+            double step = parts.length > 2 ? Double.parseDouble(parts[2]) : 1;
+            return new Range(from, to, step);
+        }
+
+        /* @return all values of the range. They are computed in decimal, so 0.1 + 2 * 0.1 is 0.3 */
+        public double[] values() {
+            int n = (int) Math.floor((to - from) / step + 1e-9) + 1;
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                v[i] = BigDecimal.valueOf(from).add(BigDecimal.valueOf(step).multiply(BigDecimal.valueOf(i))).doubleValue();
+            }
+            return v;
+        }
+
+        @Override
+        public String toString() {
+            return from + ":" + to + ":" + step;
+        }
+    }
+
+    /*
+    Set the ranges from a description like bias=0.05:0.2:0.05,r=0.6,factor=1.5:2.5:0.5,seed=1:8,trials=100000
+    (the other ranges are not changed)
+    @param s the description
+     */
+    public void parse(String s) {
+        for (String part : s.split(",")) {
+            String[] kv = part.split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Expected name=range, not " + part);
+            }
+            String key = kv[0].trim().toUpperCase();
+            Range range = Range.parse(kv[1]);
+            if (key.startsWith("B")) {
+                setBias(range);
+            } else if (key.startsWith("R")) {
+                setR(range);
+            } else if (key.startsWith("F")) {
+                setFactor(range);
+            } else if (key.startsWith("S")) {
+                setSeed(range);
+            } else if (key.startsWith("T")) {
+                setTrials(range);
+            } else {
+                throw new IllegalArgumentException("Unknown parameter " + kv[0]);
+            }
+        }
+    }
+
+    /* @return all points of the grid, in the order of the table */
+    public List<Point> getPoints() {
+        List<Point> points = new ArrayList<>();
+        double[] biases = fair ? new double[]{Double.NaN} : bias.values();
+        for (double b : biases) {
+            for (double e : r.values()) {
+                for (double fa : factor.values()) {
+                    for (double s : seed.values()) {
+                        for (double t : trials.values()) {
+                            points.add(new Point(b, e, fa, (long) s, (long) t));
+                        }
+                    }
+                }
+            }
+        }
+        return points;
+    }
+
+    /* Run all points and write the table
+    @return the points with their results
+     */
+    public List<Point> run() {
+        List<Point> points = getPoints();
+        p("Running " + points.size() + " points with " + threads + " threads");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<Point>> tasks = new ArrayList<>();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FILE))) {
+            for (Point point : points) {
+                tasks.add(pool.submit(new PointTask(point)));
+            }
+            writer.write(HEADER);
+            writer.newLine();
+            // the points are written in the order of the grid, whenever they are done
+            for (ForkJoinTask<Point> task : tasks) {
+                Point point = task.join();
+                writer.write(point.toString());
+                writer.newLine();
+                writer.flush();
+                p(point.toString());
+            }
+        } catch (IOException e) {
+            p("Could not write the file " + FILE + " because " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        return points;
+    }
+
+    /* Runs one point: the chunks are forked, and the counts are merged when all are done */
+    private class PointTask extends RecursiveTask<Point> {
+
+        private final Point point;
+
+        PointTask(Point point) {
+            this.point = point;
+        }
+
+        @Override
+        protected Point compute() {
+            long start = System.currentTimeMillis();
+            Settings s = settings.copy();
+            s.setEntanglementEfficiency(point.r);
+            s.setSeed(point.seed);
+            s.setTrials(point.trials);
+            Rand rand = RandContext.create(s, point.bias).getChoices();
+
+            long chunks = (point.trials + Engine.CHUNK - 1) / Engine.CHUNK;
+            List<ForkJoinTask<Counts>> parts = new ArrayList<>();
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                TrialWorker worker = Engine.createWorker(s.copy(), model, rand, profile.withFactor(point.factor), null, chunk, point.trials);
+                parts.add(ForkJoinTask.adapt(worker));
+            }
+            Counts counts = new Counts();
+            for (ForkJoinTask<Counts> part : invokeAll(parts)) {
+                counts.merge(part.join());
+            }
+            Inequality ineq = in.copy();
+            ineq.setCounts(counts);
+            point.counts = counts;
+            point.value = ineq.compute();
+            point.broken = ineq.isBroken(point.value);
+            point.millis = System.currentTimeMillis() - start;
+            return point;
+        }
+    }
+
+    public void setBias(Range bias) {
+        this.bias = bias;
+        this.fair = false;
+    }
+
+    public void setR(Range r) {
+        this.r = r;
+    }
+
+    public void setFactor(Range factor) {
+        this.factor = factor;
+    }
+
+    /* @param profile how the efficiency changes during each run (its factor is the default range of the factor) */
+    public void setProfile(EfficiencyProfile profile) {
+        this.profile = profile;
+        this.factor = new Range(profile.getFactor());
+    }
+
+    public void setSeed(Range seed) {
+        this.seed = seed;
+    }
+
+    public void setTrials(Range trials) {
+        this.trials = trials;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    private static void p(String s) {
+        System.out.println("Sweep: " + s);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A model that looks up the outcomes of another model in a table instead of
+ * computing them. For each angle at a detector, the range of the hidden
+ * variable (0 to 180 degrees) is split into steps, and the table has the spin
+ * in each step (for deterministic models) or the probabilities of the spins
+ * at each point of the grid (for models that use random numbers, see
+ * AbstractLHVModel.getProbability). The tables are computed the first time an
+ * angle is used and are shared with the copies of the model. The probabilities
+ * can be interpolated between the points of the grid. getDivergence tells how
+ * far the table is from the model, so a resolution can be chosen that keeps the
+ * results within a tolerance.
+ *
+ * @author croth
+ */
+public class TabulatedModel extends AbstractLHVModel implements Serializable {
+
+    private static final long serialversionUID = 1L;
+
+    /* the default number of steps from 0 to 180 degrees (0.05 degrees per step) */
+    public static final int STEPS = 3600;
+
+    /* at most this many angles are tabulated (searches change the angles all the time) */
+    private static final int MAXTABLES = 16;
+
+    /* the number of points per step where the divergence is checked */
+    private static final int CHECKS = 16;
+
+    private final AbstractLHVModel model;
+    private final int steps;
+    private final double step;
+    private final boolean interpolate;
+    private final Rand rand;
+
+    private transient volatile Table[] tables;
+
+    /* The table for one angle and entanglement efficiency */
+    private static final class Table {
+
+        final double angle;
+        final double r;
+
+        /* for deterministic models: the spin in each step (taken in the middle of the step) */
+        final byte[] spins;
+
+        /* for other models: the probability of +1, and of +1 or 0, at each point of the grid */
+        final float[] plus;
+        final float[] detected;
+
+        Table(double angle, double r, byte[] spins, float[] plus, float[] detected) {
+            this.angle = angle;
+            this.r = r;
+            this.spins = spins;
+            this.plus = plus;
+            this.detected = detected;
+        }
+    }
+
+    /*
+    @param model the model to tabulate (with the settings to use)
+    @param steps the number of steps from 0 to 180 degrees
+    @param interpolate true to interpolate the probabilities between the points of the grid
+     */
+    public TabulatedModel(AbstractLHVModel model, int steps, boolean interpolate) {
+        this(model, steps, interpolate, new Rand());
+    }
+
+    /*
+    @param model the model to tabulate (with the settings to use)
+    @param steps the number of steps from 0 to 180 degrees
+    @param interpolate true to interpolate the probabilities between the points of the grid
+    @param rand the random generator for the spins of models that are not deterministic
+     */
+    public TabulatedModel(AbstractLHVModel model, int steps, boolean interpolate, Rand rand) {
+        super(model.getSettings());
+        if (steps < 1) {
+            throw new IllegalArgumentException("The table needs at least one step");
+        }
+        if (Double.isNaN(model.getProbability(0, 0, -1))) {
+            throw new IllegalArgumentException(model.getClass().getSimpleName() + " cannot tell the probabilities of its spins");
+        }
+        this.model = model;
+        this.steps = steps;
+        this.step = OutcomePartition.LAMBDAMAX / steps;
+        this.interpolate = interpolate;
+        this.rand = rand;
+    }
+
+    /* The copy uses a copy of the model, and shares the tables that were computed so far */
+    @Override
+    public AbstractLHVModel copy(Settings settings, Rand rand) {
+        TabulatedModel t = new TabulatedModel(model.copy(settings, rand), steps, interpolate, rand);
+        t.tables = tables;
+        return t;
+    }
+
+    /* The engine only uses computeSpinB, so this just asks the model */
+    @Override
+    public int computeSpinA(double angleAtDetector, double lambda) {
+        return model.computeSpinA(angleAtDetector, lambda);
+    }
+
+    /* Look up the spin (and draw it with the tabulated probabilities if the model is not deterministic) */
+    @Override
+    public int computeSpinB(double angleAtDetector, double lambda) {
+        Table t = table(angleAtDetector);
+        if (t.spins != null) {
+            return t.spins[cell(lambda)];
+        }
+        return draw(t, lambda);
+    }
+
+    /* The same as computeSpinB for each hidden variable, but the table is only looked up once */
+    @Override
+    public void computeSpinsB(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        Table t = table(angleAtDetector);
+        if (t.spins != null) {
+            byte[] table = t.spins;
+            for (int i = from; i < to; i++) {
+                spins[i] = table[cell(lambdas[i])];
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                spins[i] = (byte) draw(t, lambdas[i]);
+            }
+        }
+    }
+
+    @Override
+    public boolean isDeterministic() {
+        return model.isDeterministic();
+    }
+
+    /* The probability from the table */
+    @Override
+    public double getProbability(double angleAtDetector, double lambda, int spin) {
+        Table t = table(angleAtDetector);
+        if (t.spins != null) {
+            return t.spins[cell(lambda)] == spin ? 1 : 0;
+        }
+        double plus = value(t.plus, lambda);
+        double detected = value(t.detected, lambda);
+        return spin == 1 ? plus : spin == 0 ? detected - plus : 1 - detected;
+    }
+
+    /* For deterministic models, the steps of the table where the spin changes */
+    @Override
+    public OutcomePartition getPartition(double angleAtDetector) {
+        Table t = table(angleAtDetector);
+        if (t.spins == null) {
+            return null;
+        }
+        double[] points = new double[steps - 1];
+        int n = 0;
+        for (int i = 1; i < steps; i++) {
+            if (t.spins[i] != t.spins[i - 1]) {
+                points[n++] = i * step;
+            }
+        }
+        byte[] spins = t.spins;
+        return OutcomePartition.of(Arrays.copyOf(points, n), lambda -> spins[cell(lambda)]);
+    }
+
+    /*
+    How far the table is from the model for one angle, for a uniform hidden variable:
+    for deterministic models the probability that a photon gets a different spin, for
+    other models the mean of the largest difference of the probabilities of the spins.
+    So the counts of a run differ by about trials * divergence at most.
+    @param angleAtDetector is the angle at the detector
+    @return the divergence (0 to 1)
+     */
+    public double getDivergence(double angleAtDetector) {
+        Table t = table(angleAtDetector);
+        int n = steps * CHECKS;
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            double lambda = (k + 0.5) * step / CHECKS;
+            if (t.spins != null) {
+                if (t.spins[cell(lambda)] != model.computeSpinB(angleAtDetector, lambda)) {
+                    sum++;
+                }
+            } else {
+                double d = 0;
+                for (int spin = -1; spin <= 1; spin++) {
+                    d = Math.max(d, Math.abs(getProbability(angleAtDetector, lambda, spin)
+                            - model.getProbability(angleAtDetector, lambda, spin)));
+                }
+                sum += d;
+            }
+        }
+        return sum / n;
+    }
+
+    /* @return the largest divergence for the angles at A and B of the settings (see getDivergence) */
+    public double getMaxDivergence() {
+        double max = 0;
+        for (double angle : settings.getA()) {
+            max = Math.max(max, getDivergence(angle));
+        }
+        for (double angle : settings.getB()) {
+            max = Math.max(max, getDivergence(angle));
+        }
+        return max;
+    }
+
+    /* Draw a spin with the probabilities in the table, with one random number as the model does */
+    private int draw(Table t, double lambda) {
+        double r = rand.randDouble();
+        if (r < value(t.plus, lambda)) {
+            return 1;
+        }
+        return r < value(t.detected, lambda) ? 0 : -1;
+    }
+
+    /* @return the step of the hidden variable */
+    private int cell(double lambda) {
+        int i = (int) (lambda / step);
+        return i < 0 ? 0 : i >= steps ? steps - 1 : i;
+    }
+
+    /* @return the value at the nearest point of the grid, or interpolated between the two nearest points */
+    private double value(float[] table, double lambda) {
+        double x = lambda / step;
+        x = x < 0 ? 0 : x > steps ? steps : x;
+        if (!interpolate) {
+            return table[(int) Math.round(x)];
+        }
+        int i = Math.min((int) x, steps - 1);
+        double f = x - i;
+        return table[i] + f * (table[i + 1] - table[i]);
+    }
+
+    /*
+    The table for an angle, computed when it is used for the first time. The tables are
+    dropped when the entanglement efficiency changes
+    @param angle is in degrees
+     */
+    private Table table(double angle) {
+        double r = settings.getEntanglementEfficiency();
+        Table[] current = tables;
+        if (current == null) {
+            current = new Table[0];
+        }
+        for (Table t : current) {
+            if (t.angle == angle && t.r == r) {
+                return t;
+            }
+        }
+        Table t = compute(angle, r);
+        int n = current.length < MAXTABLES ? current.length : 0;
+        Table[] more = new Table[n + 1];
+        System.arraycopy(current, 0, more, 0, n);
+        more[n] = t;
+        tables = more;
+        return t;
+    }
+
+    private Table compute(double angle, double r) {
+        if (model.isDeterministic()) {
+            byte[] spins = new byte[steps];
+            for (int i = 0; i < steps; i++) {
+                spins[i] = (byte) model.computeSpinB(angle, (i + 0.5) * step);
+            }
+            return new Table(angle, r, spins, null, null);
+        }
+        float[] plus = new float[steps + 1];
+        float[] detected = new float[steps + 1];
+        for (int i = 0; i <= steps; i++) {
+            double p = model.getProbability(angle, i * step, 1);
+            plus[i] = (float) p;
+            detected[i] = (float) (p + model.getProbability(angle, i * step, 0));
+        }
+        return new Table(angle, r, null, plus, detected);
+    }
+
+    /* @return the model that is tabulated */
+    public AbstractLHVModel getModel() {
+        return model;
+    }
+
+    /* @return the number of steps from 0 to 180 degrees */
+    public int getSteps() {
+        return steps;
+    }
+
+    /* @return true if the probabilities are interpolated */
+    public boolean isInterpolated() {
+        return interpolate;
+    }
+}
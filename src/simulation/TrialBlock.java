@@ -0,0 +1,113 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+/**
+ * A block of trials for deterministic models. First the random values of all
+ * trials of the block are drawn, in the same order as when the trials are run
+ * one by one (the settings, the hidden variable and whether the photons are
+ * entangled), so the results do not change. Then the spins are computed with
+ * one call per angle, which avoids a virtual call and a branch per photon.
+ * A block is not thread safe, each thread needs its own.
+ *
+ * @author croth
+ */
+final class TrialBlock {
+
+    /* the number of trials in a block */
+    static final int SIZE = 1024;
+
+    final byte[] whichA = new byte[SIZE];
+    final byte[] whichB = new byte[SIZE];
+    final double[] lambdas = new double[SIZE];
+    final byte[] spinA = new byte[SIZE];
+    final byte[] spinB = new byte[SIZE];
+
+    private final boolean[] entangled = new boolean[SIZE];
+
+    /* the spins for each of the two angles at A and at B */
+    private final byte[][] spinsA = {new byte[SIZE], new byte[SIZE]};
+    private final byte[][] spinsB = {new byte[SIZE], new byte[SIZE]};
+
+    /* the number of trials in the block */
+    int size;
+
+    /*
+    Draw the random values for the trials start to start + n
+    @param rand the random generator for the settings and the hidden variable
+    @param entangler the entangler
+    @param values user supplied settings for A and B (can be null)
+    @param randomAngles true for random hidden variables, false to iterate over all angles
+    @param start the first trial
+    @param n the number of trials (at most SIZE)
+     */
+    void draw(Rand rand, Entangler entangler, PackedSettings values, boolean randomAngles, long start, int n) {
+        size = n;
+        for (int i = 0; i < n; i++) {
+            long t = start + i;
+            if (values != null) {
+                whichA[i] = (byte) values.getA(t);
+                whichB[i] = (byte) values.getB(t);
+                lambdas[i] = rand.randDouble(0, 180);
+            } else if (randomAngles) {
+                whichA[i] = (byte) rand.randBit();
+                whichB[i] = (byte) rand.randBit();
+                lambdas[i] = rand.randDouble(0, 180);
+            } else {
+                // Iterate over all the angles uniformly
+                whichA[i] = (byte) rand.randBit();
+                whichB[i] = (byte) rand.randBit();
+                lambdas[i] = t % 180;
+            }
+            entangled[i] = entangler.photonsCreatedAndEntangled();
+        }
+    }
+
+    /*
+    Compute spinA and spinB for the drawn trials (-1 if the photons were not entangled).
+    As in the engine, computeSpinB is used for both sides.
+    @param model a deterministic model
+    @param A the two angles at A
+    @param B the two angles at B
+     */
+    void measure(AbstractLHVModel model, double[] A, double[] B) {
+        for (int k = 0; k < 2; k++) {
+            model.computeSpinsB(A[k], lambdas, 0, size, spinsA[k]);
+            model.computeSpinsB(B[k], lambdas, 0, size, spinsB[k]);
+        }
+        byte[] a0 = spinsA[0];
+        byte[] a1 = spinsA[1];
+        byte[] b0 = spinsB[0];
+        byte[] b1 = spinsB[1];
+        for (int i = 0; i < size; i++) {
+            byte a = whichA[i] == 0 ? a0[i] : a1[i];
+            byte b = whichB[i] == 0 ? b0[i] : b1[i];
+            spinA[i] = entangled[i] ? a : -1;
+            spinB[i] = entangled[i] ? b : -1;
+        }
+    }
+
+    /* Add all trials of the block to the counts */
+    void addTo(Counts counts) {
+        for (int i = 0; i < size; i++) {
+            counts.addResultOfOnePair(whichA[i], whichB[i], spinA[i], spinB[i]);
+        }
+    }
+}
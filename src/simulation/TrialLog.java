@@ -0,0 +1,199 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A log file with one entry per trial. The entries are collected in a buffer.
+ * A full buffer is handed to an AsyncLogWriter, which writes it to the file on
+ * its own thread (with a single channel that stays open for the whole run),
+ * while the trials continue with the next buffer.
+ *
+ * @author croth
+ */
+public abstract class TrialLog {
+
+    /* the default size of each buffer in bytes, and the default number of buffers */
+    static final int BUFFERSIZE = 1 << 20;
+    static final int BUFFERS = 4;
+
+    /* the extension of compressed logs (see Settings.getLogCompression) */
+    static final String GZIP = ".gz";
+
+    protected final FileChannel channel;
+    protected ByteBuffer buffer;
+
+    /* the settings of the run, and which trials are written */
+    protected final Settings settings;
+    protected final LogPolicy policy;
+
+    private final AsyncLogWriter writer;
+
+    /* the bytes handed to the writer since the file was opened */
+    private long written;
+
+    /*
+    @param file the name of the file
+    @param append whether to append to an existing file
+    @param settings the settings with the memory for the buffers (see Settings.getLogMemory)
+     */
+    protected TrialLog(String file, boolean append, Settings settings) throws IOException {
+        this.settings = settings;
+        this.policy = LogPolicy.create(settings);
+        channel = new FileOutputStream(file, append).getChannel();
+        int buffers = Math.max(2, settings.getLogBuffers());
+        int size = (int) Math.max(1 << 12, Math.min(Integer.MAX_VALUE, settings.getLogMemory() / buffers));
+        writer = new AsyncLogWriter(channel, size, buffers, settings.getLogCompression());
+        buffer = writer.take();
+    }
+
+    /* Start the file with the header, or when appending to a file that is not empty, check that
+    the file has the same header, so that the new entries have the same format as the old ones
+    @param file the name of the file
+    @param append whether to append to an existing file
+    @param header the header for the settings of this run
+     */
+    protected void writeHeader(String file, boolean append, byte[] header) throws IOException {
+        if (!append || channel.size() == 0) {
+            buffer.put(header);
+            return;
+        }
+        byte[] old = new byte[header.length];
+        int n = 0;
+        try (InputStream in = open(file)) {
+            int r;
+            while (n < old.length && (r = in.read(old, n, old.length - n)) > 0) {
+                n += r;
+            }
+        }
+        if (n < old.length || !Arrays.equals(old, header)) {
+            close();
+            throw new IOException(file + " has a different header (such as other angles or another log policy),"
+                    + " the entries cannot be appended");
+        }
+    }
+
+    /* @return the content of the file (uncompressed if the log is compressed) */
+    private InputStream open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (settings.getLogCompression() >= 0) {
+            try {
+                return new GZIPInputStream(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return in;
+    }
+
+    /* Open the log for the given format (log.bin or log.csv, or log.bin.gz or log.csv.gz if it is compressed)
+    @param format binary or csv
+    @param settings the settings of the run (the binary log stores the angles in the header)
+    @param append whether we continue a previous run (then no header is written)
+    @return the log
+     */
+    public static TrialLog open(Settings.LOGFORMAT format, Settings settings, boolean append) throws IOException {
+        String gz = settings.getLogCompression() >= 0 ? GZIP : "";
+        if (format == Settings.LOGFORMAT.CSV) {
+            return new CsvTrialLog("log.csv" + gz, settings, append);
+        } else {
+            return new BinaryTrialLog("log.bin" + gz, settings, append);
+        }
+    }
+
+    /* Add one trial to the log, if the policy (see Settings.getLogPolicy) accepts it
+    @param trial the index of the trial in the run
+    @param whichA the setting at A (0 or 1)
+    @param whichB the setting at B (0 or 1)
+    @param angleA the angle at A in degrees
+    @param angleB the angle at B in degrees
+    @param spinA the spin at A (1, 0 or -1 for not detected)
+    @param spinB the spin at B (1, 0 or -1 for not detected)
+    @param lambda the hidden variable in degrees
+     */
+    public final void record(long trial, int whichA, int whichB, double angleA, double angleB,
+            int spinA, int spinB, double lambda) throws IOException {
+        if (policy.accept(trial, whichA, whichB, spinA, spinB, lambda)) {
+            write(trial, whichA, whichB, angleA, angleB, spinA, spinB, lambda);
+        }
+    }
+
+    /* Format and write one trial (the index of the trial is only written if the policy needs it)
+    @see record
+     */
+    protected abstract void write(long trial, int whichA, int whichB, double angleA, double angleB,
+            int spinA, int spinB, double lambda) throws IOException;
+
+    /* Hand whatever is in the buffer to the writer thread, and continue with an empty buffer.
+    This only waits if all buffers are still waiting to be written */
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            written += buffer.position();
+            buffer = writer.swap(buffer);
+        }
+    }
+
+    /* @return the bytes logged since the file was opened (including the buffer) */
+    public long getBytes() {
+        return written + buffer.position();
+    }
+
+    /* @return the number of bytes in the file so far (after a flush, waits until they are written).
+    A compressed file can be cut at this size (see truncate) */
+    public long size() throws IOException {
+        writer.finishMember();
+        writer.checkError();
+        return channel.size();
+    }
+
+    /* Cut the file to the given size (such as the size at the last checkpoint)
+    @param size the size in bytes
+     */
+    public void truncate(long size) throws IOException {
+        flush();
+        writer.sync();
+        if (size < channel.size()) {
+            channel.truncate(size);
+        }
+    }
+
+    /* Write everything to the file and close it (also when the run was cancelled) */
+    public void close() throws IOException {
+        try {
+            policy.drain(this);
+            flush();
+        } finally {
+            try {
+                writer.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
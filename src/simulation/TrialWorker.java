@@ -0,0 +1,133 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs one chunk of trials of an experiment with its own random generators and
+ * its own counts, so that the chunks of a large run can be computed in
+ * parallel. The random numbers only depend on the seed and the chunk, not on
+ * the thread that runs the chunk, so the merged counts are always the same.
+ *
+ * @author croth
+ */
+public class TrialWorker implements Callable<Counts> {
+
+    private final Settings settings;
+    private final AbstractLHVModel model;
+    private final Rand rand;
+    private final Entangler entangler;
+
+    /* user supplied settings for A and B (can be null) */
+    private final PackedSettings values;
+
+    /* the first trial (inclusive) and the last trial (exclusive) of this chunk */
+    private final long start;
+    private final long end;
+
+    /* the total number of trials of the whole run */
+    private final long trials;
+
+    /* the number of windows of the run to keep the counts for (0 for none) */
+    private int windows;
+
+    /*
+    @param settings the settings (angles etc) for this worker
+    @param model the model for this worker
+    @param rand the random generator for the settings and the hidden variable
+    @param entangler the entangler for this worker
+    @param values user supplied settings for A and B (can be null)
+    @param start first trial of the chunk (inclusive)
+    @param end last trial of the chunk (exclusive)
+    @param trials the total number of trials of the run
+     */
+    public TrialWorker(Settings settings, AbstractLHVModel model, Rand rand, Entangler entangler,
+            PackedSettings values, long start, long end, long trials) {
+        this.settings = settings;
+        this.model = model;
+        this.rand = rand;
+        this.entangler = entangler;
+        this.values = values;
+        this.start = start;
+        this.end = end;
+        this.trials = trials;
+    }
+
+    /* @param windows the number of windows of the run to keep the counts for (see Counts.setWindows) */
+    public void setWindows(int windows) {
+        this.windows = windows;
+    }
+
+    /* Run all trials of this chunk
+    @return the counts of this chunk only
+     */
+    @Override
+    public Counts call() {
+        Counts counts = new Counts();
+        counts.setWindows(windows, trials);
+        counts.setPosition(start);
+        rand.setTrials(trials);
+        rand.setPosition(start);
+        entangler.setTrials(trials);
+        entangler.setPosition(start);
+
+        double[] A = settings.getA();
+        double[] B = settings.getB();
+        boolean randomAngles = settings.getAngleGenerator() == Settings.LAMBDAGENERATOR.RANDOMANGLES;
+        if (model.isDeterministic()) {
+            TrialBlock block = new TrialBlock();
+            for (long t = start; t < end; t += TrialBlock.SIZE) {
+                block.draw(rand, entangler, values, randomAngles, t, (int) Math.min(TrialBlock.SIZE, end - t));
+                block.measure(model, A, B);
+                block.addTo(counts);
+            }
+            return counts;
+        }
+
+        for (long t = start; t < end; t++) {
+            int whichA;
+            int whichB;
+            double photonAngle;
+            if (values != null) {
+                whichA = values.getA(t);
+                whichB = values.getB(t);
+                photonAngle = rand.randDouble(0, 180);
+            } else if (randomAngles) {
+                whichA = rand.randBit();
+                whichB = rand.randBit();
+                photonAngle = rand.randDouble(0, 180);
+            } else {
+                // Iterate over all the angles uniformly
+                whichA = rand.randBit();
+                whichB = rand.randBit();
+                photonAngle = t % 180;
+            }
+            int spinA = -1;
+            int spinB = -1;
+            if (entangler.photonsCreatedAndEntangled()) {
+                spinA = model.computeSpinB(A[whichA], photonAngle);
+                spinB = model.computeSpinB(B[whichB], photonAngle);
+            }
+            counts.addResultOfOnePair(whichA, whichB, spinA, spinB);
+        }
+        return counts;
+    }
+}
@@ -32,14 +32,27 @@ public class TrivialModel extends AbstractLHVModel implements Serializable{
     
     private Rand rand;
     /*
-    A dummy model
+    A dummy model with its own random generator (an engine uses a copy with the generator of its run)
      */
     public TrivialModel(Settings settings) {
         super(settings);
-        rand = Rand.getRand();
+        rand = new Rand();
 
     }
 
+    /*
+    A dummy model that uses the given random generator
+     */
+    public TrivialModel(Settings settings, Rand rand) {
+        super(settings);
+        this.rand = rand;
+    }
+
+    @Override
+    public AbstractLHVModel copy(Settings settings, Rand rand) {
+        return new TrivialModel(settings, rand);
+    }
+
     /*
       Compute the spin at detector A. 
     There are two methods for A and B so that we can use an 
@@ -99,6 +112,40 @@ public class TrivialModel extends AbstractLHVModel implements Serializable{
        return measure(angleAtDetector, lambda);
     }
 
+    /* The same as computeSpinA for each hidden variable, with the random numbers in the order of the array */
+    @Override
+    public void computeSpinsA(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        measure(angleAtDetector, lambdas, from, to, spins);
+    }
+
+    /* The same as computeSpinB for each hidden variable, with the random numbers in the order of the array */
+    @Override
+    public void computeSpinsB(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        measure(angleAtDetector, lambdas, from, to, spins);
+    }
+
+    /* measure without branches: the spin is 1 if sin(a) < 0 and the photon is detected,
+    0 if sin(a) >= 0 and it is detected, and -1 if it is not detected */
+    private void measure(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        for (int i = from; i < to; i++) {
+            double sin = Math.sin(Math.toRadians(lambdas[i] - angleAtDetector));
+            int detected = rand.randDouble() <= 2.3 * Math.abs(sin) ? 1 : 0;
+            int spin = sin < 0 ? 1 : 0;
+            spins[i] = (byte) (detected * (spin + 1) - 1);
+        }
+    }
+
+    /* A photon is detected with the probability 2.3 * |sin(delta)|, and then the spin only depends on the sign */
+    @Override
+    public double getProbability(double angleAtDetector, double lambda, int spin) {
+        double sin = Math.sin(Math.toRadians(lambda - angleAtDetector));
+        double detected = Math.min(1, 2.3 * Math.abs(sin));
+        if (spin < 0) {
+            return 1 - detected;
+        }
+        return (sin < 0 ? 1 : 0) == spin ? detected : 0;
+    }
+
      private static void p(String s) {
         System.out.println("Trivial:"+s);
     }
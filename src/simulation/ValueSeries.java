@@ -0,0 +1,113 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+import java.util.List;
+
+/**
+ * The values of several inequalities during a run, such as every 100000
+ * trials, to see how they converge. The values are kept in a ring buffer of
+ * primitive arrays with a fixed number of points: when it is full, the oldest
+ * points are dropped.
+ *
+ * @author croth
+ */
+public class ValueSeries {
+
+    private final Inequality[] inequalities;
+    private final int capacity;
+
+    /* the total trials at each point, and the values of all inequalities at each point */
+    private final long[] trials;
+    private final double[] values;
+
+    /* where the next point goes, and the number of points */
+    private int next;
+    private int size;
+
+    /*
+    @param inequalities the inequalities to evaluate (the series uses copies)
+    @param capacity the number of points that are kept
+     */
+    public ValueSeries(List<Inequality> inequalities, int capacity) {
+        this.inequalities = new Inequality[inequalities.size()];
+        for (int i = 0; i < this.inequalities.length; i++) {
+            this.inequalities[i] = inequalities.get(i).copy();
+        }
+        this.capacity = Math.max(1, capacity);
+        trials = new long[this.capacity];
+        values = new double[this.capacity * this.inequalities.length];
+    }
+
+    /* Evaluate all inequalities for the counts so far and add them as a point */
+    public void record(Counts counts) {
+        int n = inequalities.length;
+        for (int i = 0; i < n; i++) {
+            inequalities[i].setCounts(counts);
+            values[next * n + i] = inequalities[i].compute();
+        }
+        trials[next] = counts.getTotalTrials();
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    /* @return the number of points (at most the capacity) */
+    public int size() {
+        return size;
+    }
+
+    /* @return the total trials at the last point (0 if there is none) */
+    public long getLastTrials() {
+        return size == 0 ? 0 : trials[(next + capacity - 1) % capacity];
+    }
+
+    /* @param point the point, 0 is the oldest
+    @return the total trials at the point */
+    public long getTrials(int point) {
+        return trials[index(point)];
+    }
+
+    /* @param point the point, 0 is the oldest
+    @param inequality the index of the inequality
+    @return the value of the inequality at the point */
+    public double getValue(int point, int inequality) {
+        return values[index(point) * inequalities.length + inequality];
+    }
+
+    private int index(int point) {
+        return (next - size + point + capacity) % capacity;
+    }
+
+    /* @return the series as a table with one line per point, for the summary */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("\n\nConvergence, the value of each inequality during the run\nTrials");
+        for (Inequality in : inequalities) {
+            s.append(", ").append(in.getClass().getSimpleName());
+        }
+        for (int p = 0; p < size; p++) {
+            s.append('\n').append(getTrials(p));
+            for (int i = 0; i < inequalities.length; i++) {
+                s.append(", ").append(getValue(p, i));
+            }
+        }
+        return s.toString();
+    }
+}
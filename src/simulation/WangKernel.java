@@ -0,0 +1,138 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+/**
+ * The values of the model of F. Wang for one angle at a detector and one
+ * entanglement efficiency r. They only depend on the angle and r, so they are
+ * computed once, and measuring a photon then just needs a few comparisons.
+ * Instances are immutable and can be shared between threads.
+ *
+ * @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
+ * @author croth
+ */
+public final class WangKernel {
+
+    /* the angle at the detector in degrees and the entanglement efficiency */
+    private final double angle;
+    private final double r;
+
+    /* the intervals of the hidden variable (in degrees) for the spin + and the spin 0 */
+    private final double thetaPlus;
+    private final double plusEnd;
+    private final double minusStart;
+    private final double minusEnd;
+
+    /* thetaPlus in radians. At lambda == thetaPlus the detection probability is 0 */
+    private final double thetaPlusRad;
+
+    /* whether a photon can be detected at all in the + or in the 0 interval */
+    private final boolean plusDetectable;
+    private final boolean minusDetectable;
+
+    /* the spins as intervals of the hidden variable */
+    private final OutcomePartition partition;
+
+    /*
+    @param angle the angle at the detector in degrees
+    @param r the entanglement efficiency
+     */
+    public WangKernel(double angle, double r) {
+        this.angle = angle;
+        this.r = r;
+        double b = Math.toRadians(angle);
+        double c = Math.cos(b);
+        double s = Math.sin(b);
+
+        double t = (r * r * c * c - s * s) / (r * r * c * c + s * s);
+        thetaPlus = Math.toDegrees(Math.acos(t) / 2.0);
+        t = (-r * r * s * s + c * c) / (r * r * s * s + c * c);
+        double thetaMinus = Math.toDegrees(Math.acos(t) / 2.0);
+
+        plusEnd = thetaPlus + 90;
+        minusStart = thetaMinus + 90;
+        minusEnd = thetaMinus + 180;
+        thetaPlusRad = Math.toRadians(thetaPlus);
+
+        double pbPlus = (r * r * c * c + s * s) / (1 + r * r);
+        double pbMinus = (r * r * s * s + c * c) / (1 + r * r);
+        plusDetectable = pbPlus > 0;
+        minusDetectable = pbMinus > 0;
+        partition = OutcomePartition.of(new double[]{thetaPlus, plusEnd, minusStart, minusEnd}, this::spin);
+    }
+
+    /* @return true if this kernel was computed for the given angle and r */
+    public boolean matches(double angle, double r) {
+        return this.angle == angle && this.r == r;
+    }
+
+    /*
+    Compute the spin for the hidden variable lambda. This gives the same result as
+    WangLHVModel.computeSpinB: the detection probability in the model is
+    Pb * |sin(2 * (lambda - theta))|, which is only 0 if Pb is 0 or at the very start
+    of the + interval (in the 0 interval lambda is always at least 90 degrees away from theta)
+    @param lambda the hidden variable in degrees
+    @return
+     +1 means plus
+      0 means zero (extraordinary)
+     -1 means no detection
+     */
+    public int spin(double lambda) {
+        if (lambda >= thetaPlus && lambda <= plusEnd) {
+            return plusDetectable && Math.toRadians(lambda) != thetaPlusRad ? 1 : -1;
+        }
+        if (lambda >= minusStart && lambda <= minusEnd) {
+            return minusDetectable ? 0 : -1;
+        }
+        return -1;
+    }
+
+    /*
+    Compute the spins for many hidden variables, the same as spin for each of them.
+    The loop has no branches (the conditions become conditional moves),
+    so the JIT can vectorize it and there are no branch mispredictions.
+    @param lambdas the hidden variables in degrees
+    @param from the first index (inclusive)
+    @param to the last index (exclusive)
+    @param spins receives the spins at the same indices
+     */
+    public void spins(double[] lambdas, int from, int to, byte[] spins) {
+        for (int i = from; i < to; i++) {
+            double lambda = lambdas[i];
+            boolean plus = lambda >= thetaPlus & lambda <= plusEnd;
+            boolean minus = !plus & lambda >= minusStart & lambda <= minusEnd;
+            int spin = (plus & plusDetectable & Math.toRadians(lambda) != thetaPlusRad) ? 1 : -1;
+            spins[i] = (byte) ((minus & minusDetectable) ? 0 : spin);
+        }
+    }
+
+    /* @return the spins as intervals of the hidden variable from 0 to 180 degrees */
+    public OutcomePartition getPartition() {
+        return partition;
+    }
+
+    public double getAngle() {
+        return angle;
+    }
+
+    public double getR() {
+        return r;
+    }
+}
@@ -36,6 +36,13 @@ public class WangLHVModel extends AbstractLHVModel implements Serializable {
 
     private static final long serialversionUID = 1L;
 
+    /* at most this many angles are cached (findAngles changes the angles all the time) */
+    private static final int MAXKERNELS = 16;
+
+    /* the precomputed values per angle, and the version of the settings they were computed for */
+    private transient volatile WangKernel[] kernels;
+    private transient int version;
+
     /*
     @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
      */
@@ -44,6 +51,12 @@ public class WangLHVModel extends AbstractLHVModel implements Serializable {
 
     }
 
+    /* The model is deterministic, so it does not need the random generator */
+    @Override
+    public AbstractLHVModel copy(Settings settings, Rand rand) {
+        return new WangLHVModel(settings);
+    }
+
     /*
     Compute the spin at detector A. 
     There are two methods for A and B so that we can use an 
@@ -83,90 +96,52 @@ public class WangLHVModel extends AbstractLHVModel implements Serializable {
      */
     @Override
     public int computeSpinB(double angleAtDetector, double lambda) {
-
-        double thetaPlus = thetaPlus(angleAtDetector);
-        double thetaMinus = thetaMinus(angleAtDetector);
-
-        double lrad = Math.toRadians(lambda);
-
-        int spinB = -1;
-
-        if (lambda >= thetaPlus && lambda <= thetaPlus + 90) {
-            double thetarad = Math.toRadians(thetaPlus);
-            double s = Math.abs(Math.sin(2 * (lrad - thetarad)));
-            double probB = PbPlus(angleAtDetector) * s;
-            if (probB > 0) {
-                //if (Rand.getRand().randDouble() <= probB) {
-                    spinB = 1;
-               // }
-            }
-
-            return spinB;
-        }
-        if (lambda >= thetaMinus + 90 && lambda <= thetaMinus + 180) {
-            double thetarad = Math.toRadians(thetaMinus);
-            double s = Math.abs(Math.sin(2 * (lrad - thetarad)));
-            double probB = PbMinus(angleAtDetector) * s;
-            if (probB > 0) {
-              //  if (Rand.getRand().randDouble() <= probB) {
-                    spinB = 0;
-              //  }
-            }
-            return spinB;
-        }
-        // -1 means not detected        
-        return -1;
+        return kernel(angleAtDetector).spin(lambda);
     }
 
-    /*
-    @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
-    @param angle is in degrees
-     */
-    private double PbPlus(double angle) {
-        double b = Math.toRadians(angle);
-        double c = Math.cos(b);
-        double s = Math.sin(b);
-        double r = settings.getEntanglementEfficiency();
-        return (r * r * c * c + s * s) / (1 + r * r);
+    /* The same as computeSpinB for each hidden variable, but the kernel is only looked up once */
+    @Override
+    public void computeSpinsB(double angleAtDetector, double[] lambdas, int from, int to, byte[] spins) {
+        kernel(angleAtDetector).spins(lambdas, from, to, spins);
     }
 
-    /*
-    @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
-     @param angle is in degrees
-     */
-    private double PbMinus(double angle) {
-        double b = Math.toRadians(angle);
-        double c = Math.cos(b);
-        double s = Math.sin(b);
-        double r = settings.getEntanglementEfficiency();
-        return (r * r * s * s + c * c) / (1 + r * r);
+    /* The spin changes at the bounds of the + and 0 intervals of the kernel */
+    @Override
+    public OutcomePartition getPartition(double angleAtDetector) {
+        return kernel(angleAtDetector).getPartition();
     }
 
-    /*
-    @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
-     */
-    private double thetaPlus(double angle) {
-        double b = Math.toRadians(angle);
-        double c = Math.cos(b);
-        double s = Math.sin(b);
-        double r = settings.getEntanglementEfficiency();
-        double t = (r * r * c * c - s * s) / (r * r * c * c + s * s);
-        double theta = Math.acos(t) / 2.0;
-        return Math.toDegrees(theta);
+    /* The spins only depend on the angle and lambda */
+    @Override
+    public boolean isDeterministic() {
+        return true;
     }
 
     /*
-    @see https://arxiv.org/ftp/arxiv/papers/1411/1411.6053.pdf
-     @param angle is in degrees
+    The values thetaPlus, thetaMinus, PbPlus and PbMinus only depend on the angle and on r,
+    and there are only 4 angles in a run, so they are computed once per angle.
+    The kernels are dropped when the angles or r are changed in the settings
+    @param angle is in degrees
      */
-    private double thetaMinus(double angle) {
-        double b = Math.toRadians(angle);
-        double c = Math.cos(b);
-        double s = Math.sin(b);
+    private WangKernel kernel(double angle) {
         double r = settings.getEntanglementEfficiency();
-        double t = (-r * r * s * s + c * c) / (r * r * s * s + c * c);
-        double theta = Math.acos(t) / 2.0;
-        return Math.toDegrees(theta);
+        WangKernel[] current = kernels;
+        if (current == null || version != settings.getVersion()) {
+            version = settings.getVersion();
+            current = new WangKernel[0];
+        }
+        for (WangKernel k : current) {
+            if (k.matches(angle, r)) {
+                return k;
+            }
+        }
+        WangKernel k = new WangKernel(angle, r);
+        int n = current.length < MAXKERNELS ? current.length : 0;
+        WangKernel[] more = new WangKernel[n + 1];
+        System.arraycopy(current, 0, more, 0, n);
+        more[n] = k;
+        kernels = more;
+        return k;
     }
 
 }
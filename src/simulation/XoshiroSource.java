@@ -0,0 +1,74 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2019-2020 Chantal Roth
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of this software and 
+associated documentation files (the "Software"), to deal in the Software without restriction, 
+including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or substantial 
+portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT 
+LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package simulation;
+
+/**
+ * The xoshiro256** generator by D. Blackman and S. Vigna, with 256 bits of
+ * state. The state is filled from the seed with SplitMix64, as the authors
+ * recommend.
+ *
+ * @see http://prng.di.unimi.it/
+ * @author croth
+ */
+public class XoshiroSource implements RandomSource {
+
+    private static final long serialversionUID = 1L;
+
+    private long s0;
+    private long s1;
+    private long s2;
+    private long s3;
+
+    @Override
+    public void setSeed(long seed) {
+        SplitMixSource init = new SplitMixSource();
+        init.setSeed(seed);
+        s0 = init.nextLong();
+        s1 = init.nextLong();
+        s2 = init.nextLong();
+        s3 = init.nextLong();
+    }
+
+    @Override
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    @Override
+    public long[] getState() {
+        return new long[]{s0, s1, s2, s3};
+    }
+
+    @Override
+    public void setState(long[] state) {
+        s0 = state[0];
+        s1 = state[1];
+        s2 = state[2];
+        s3 = state[3];
+    }
+}